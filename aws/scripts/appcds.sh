@@ -0,0 +1,38 @@
+#!/usr/bin/env bash
+# builds the minimized jar, records an AppCDS archive from a mock run of the stack and compares
+# startup of the full jar, the minimized jar and the minimized jar with the archive (jdk 13+)
+#
+#   scripts/appcds.sh [stack] [runs]
+set -euo pipefail
+cd "$(dirname "$0")/.."
+
+stack="${1:-dev}"
+runs="${2:-5}"
+full="target/aws-pulumi-setup-1.0-SNAPSHOT-jar-with-dependencies.jar"
+slim="target/aws-pulumi-setup-1.0-SNAPSHOT-slim.jar"
+archive="target/appcds/app.jsa"
+
+mvn -B -q -Pappcds -DskipTests package
+mkdir -p target/appcds
+rm -f "$archive"
+
+PULUMI_CONFIG="$(scripts/stack-config.sh "$stack")"
+export PULUMI_CONFIG
+
+# training run, every class loaded while building the stack goes into the archive
+java -XX:ArchiveClassesAtExit="$archive" -Dstack="$stack" -cp "$slim" myproject.StackTrainer > /dev/null
+
+# median of the startup ms reported by the trainer
+measure() {
+    for _ in $(seq "$runs"); do
+        java "$@" -Dstack="$stack" myproject.StackTrainer | awk '/^startup ms:/ { print $3 }'
+    done | sort -n | awk '{ v[NR] = $1 } END { print v[int((NR + 1) / 2)] }'
+}
+
+echo "full jar            $(measure -cp "$full") ms"
+echo "minimized jar       $(measure -cp "$slim") ms"
+echo "minimized + AppCDS  $(measure -XX:SharedArchiveFile="$archive" -cp "$slim") ms"
+echo "$(du -h "$full" | cut -f1) full jar, $(du -h "$slim" | cut -f1) minimized jar, $(du -h "$archive" | cut -f1) archive"
+echo
+echo "to run the program with the archive set runtime.options.binary in Pulumi.yaml to $slim and"
+echo "export JAVA_TOOL_OPTIONS=-XX:SharedArchiveFile=$(pwd)/$archive"
@@ -0,0 +1,47 @@
+#!/usr/bin/env bash
+# adopts the hand made dynamodb table into a stack, run once per stack before the first pulumi up
+# that manages the table
+#
+#   scripts/import-table.sh <stack>
+#
+# the key schema and ttl attribute are read from the real table and stored in the stack config, so
+# the program declares the table exactly as it exists and pulumi up never replaces it
+set -euo pipefail
+cd "$(dirname "$0")/.."
+
+stack="${1:?usage: import-table.sh <stack>}"
+table="$(pulumi config get dynamoTableName --stack "$stack" 2>/dev/null || echo csye6225-email-tracking)"
+region="$(pulumi config get aws:region --stack "$stack")"
+
+describe() {
+    aws dynamodb describe-table --region "$region" --table-name "$table" --output text --query "$1"
+}
+
+# indexes are not declared by the program, pulumi up would drop them
+indexes="$(describe 'length(Table.GlobalSecondaryIndexes || `[]`) + length(Table.LocalSecondaryIndexes || `[]`)')"
+if [ "$indexes" != "0" ]; then
+    echo "table $table has secondary indexes, declare them in App.stack before importing" >&2
+    exit 1
+fi
+
+hash_key="$(describe "Table.KeySchema[?KeyType=='HASH'].AttributeName | [0]")"
+hash_key_type="$(describe "Table.AttributeDefinitions[?AttributeName=='$hash_key'].AttributeType | [0]")"
+range_key="$(describe "Table.KeySchema[?KeyType=='RANGE'].AttributeName | [0]")"
+
+pulumi config set dynamoHashKey "$hash_key" --stack "$stack"
+pulumi config set dynamoHashKeyType "$hash_key_type" --stack "$stack"
+if [ "$range_key" != "None" ]; then
+    range_key_type="$(describe "Table.AttributeDefinitions[?AttributeName=='$range_key'].AttributeType | [0]")"
+    pulumi config set dynamoRangeKey "$range_key" --stack "$stack"
+    pulumi config set dynamoRangeKeyType "$range_key_type" --stack "$stack"
+fi
+
+ttl_attribute="$(aws dynamodb describe-time-to-live --region "$region" --table-name "$table" --output text \
+    --query "TimeToLiveDescription.AttributeName")"
+if [ "$ttl_attribute" != "None" ]; then
+    pulumi config set dynamoTtlAttribute "$ttl_attribute" --stack "$stack"
+fi
+
+pulumi import aws:dynamodb/table:Table dynamoTable "$table" --stack "$stack" --yes \
+    --protect=false --generate-code=false
+echo "imported $table (hash key $hash_key), check pulumi preview --stack $stack for remaining updates"
@@ -0,0 +1,55 @@
+#!/usr/bin/env bash
+# starts or stops the localstack container used by myproject.LocalStackBenchmark
+#
+#   scripts/localstack.sh start [stack]   start the container, create the key pair, certificate and
+#                                         hosted zone the stack expects and store them in its config
+#   scripts/localstack.sh stop
+#
+# rds, elbv2, autoscaling and dax need localstack pro, export LOCALSTACK_AUTH_TOKEN to use it
+set -euo pipefail
+cd "$(dirname "$0")/.."
+
+command="${1:?usage: localstack.sh start|stop [stack]}"
+stack="${2:-localstack}"
+endpoint="${LOCALSTACK_ENDPOINT:-http://localhost:4566}"
+export PULUMI_BACKEND_URL="${PULUMI_BACKEND_URL:-file://$HOME/.pulumi-backends/aws-pulumi-setup}"
+export PULUMI_CONFIG_PASSPHRASE="${PULUMI_CONFIG_PASSPHRASE:-}"
+export AWS_ACCESS_KEY_ID=test AWS_SECRET_ACCESS_KEY=test AWS_DEFAULT_REGION=us-west-2
+
+awslocal() {
+    aws --endpoint-url "$endpoint" "$@"
+}
+
+case "$command" in
+    start)
+        image=localstack/localstack
+        if [ -n "${LOCALSTACK_AUTH_TOKEN:-}" ]; then
+            image=localstack/localstack-pro
+        fi
+        docker run -d --rm --name localstack -p 4566:4566 \
+            -e LOCALSTACK_AUTH_TOKEN="${LOCALSTACK_AUTH_TOKEN:-}" \
+            -v /var/run/docker.sock:/var/run/docker.sock "$image"
+        until curl -sf "$endpoint/_localstack/health" > /dev/null; do
+            sleep 1
+        done
+
+        domain="$(awk '/aws-pulumi-setup:domainName:/ { print $2 }' "Pulumi.${stack}.yaml")"
+        awslocal ec2 create-key-pair --key-name test > /dev/null
+        certificate_arn="$(awslocal acm request-certificate --domain-name "$domain" \
+            --query CertificateArn --output text)"
+        zone_id="$(awslocal route53 create-hosted-zone --name "$domain" --caller-reference "$(date +%s)" \
+            --query HostedZone.Id --output text)"
+
+        mkdir -p "${PULUMI_BACKEND_URL#file://}"
+        pulumi stack select --create "$stack" > /dev/null
+        pulumi config set --stack "$stack" certificateArn "$certificate_arn"
+        pulumi config set --stack "$stack" zoneId "${zone_id##*/}"
+        ;;
+    stop)
+        docker stop localstack
+        ;;
+    *)
+        echo "usage: localstack.sh start|stop [stack]" >&2
+        exit 1
+        ;;
+esac
@@ -0,0 +1,15 @@
+#!/usr/bin/env bash
+# runs myproject.PerformanceLinter with the config of one stack, used by the perf-lint maven profile
+#
+#   scripts/perf-lint.sh <stack> <fail-on> <classpath> [--severity.<rule>=off|info|warning|error ...]
+set -euo pipefail
+cd "$(dirname "$0")/.."
+
+stack="${1:?usage: perf-lint.sh <stack> <fail-on> <classpath> [options]}"
+fail_on="${2:?usage: perf-lint.sh <stack> <fail-on> <classpath> [options]}"
+classpath="${3:?usage: perf-lint.sh <stack> <fail-on> <classpath> [options]}"
+shift 3
+
+PULUMI_CONFIG="$(scripts/stack-config.sh "$stack")"
+export PULUMI_CONFIG
+exec java -cp "$classpath" myproject.PerformanceLinter --stack="$stack" --fail-on="$fail_on" "$@"
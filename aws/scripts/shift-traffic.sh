@@ -0,0 +1,56 @@
+#!/usr/bin/env bash
+# moves traffic of a bluegreen stack to green in steps, checks https://<domainName>/healthz after every
+# step and puts the previous weight back when the check fails
+#
+#   scripts/shift-traffic.sh <stack> [steps, default 10,50,100] [pause seconds, default 300]
+#
+# rolling back after a finished shift is scripts/shift-traffic.sh <stack> 0
+set -euo pipefail
+cd "$(dirname "$0")/.."
+
+stack="${1:?usage: shift-traffic.sh <stack> [steps] [pause seconds]}"
+steps="${2:-10,50,100}"
+pause="${3:-300}"
+checks="${CHECKS:-20}"
+
+mode="$(pulumi config get deploymentMode --stack "$stack" 2>/dev/null || echo rolling)"
+if [ "$mode" != "bluegreen" ]; then
+    echo "stack $stack has deploymentMode $mode, set it to bluegreen and run pulumi up first" >&2
+    exit 1
+fi
+domain="$(pulumi config get domainName --stack "$stack")"
+current="$(pulumi config get greenWeight --stack "$stack" 2>/dev/null || echo 0)"
+
+set_weight() {
+    pulumi config set greenWeight "$1" --stack "$stack"
+    pulumi up --yes --skip-preview --stack "$stack"
+}
+
+healthy() {
+    for i in $(seq 1 "$checks"); do
+        status="$(curl -s -o /dev/null -w '%{http_code}' "https://$domain/healthz" || true)"
+        if [ "$status" != "200" ]; then
+            echo "check $i of $checks returned $status" >&2
+            return 1
+        fi
+    done
+}
+
+IFS=',' read -ra weights <<< "$steps"
+for weight in "${weights[@]}"; do
+    echo "green weight $current -> $weight"
+    if ! set_weight "$weight"; then
+        echo "pulumi up failed, putting green weight $current back" >&2
+        set_weight "$current"
+        exit 1
+    fi
+    # let slow start and the alarms see the new split before checking
+    sleep "$pause"
+    if ! healthy; then
+        echo "health check failed at green weight $weight, putting $current back" >&2
+        set_weight "$current"
+        exit 1
+    fi
+    current="$weight"
+done
+echo "green weight is $current"
@@ -0,0 +1,28 @@
+#!/usr/bin/env bash
+# prints the plain config of Pulumi.<stack>.yaml as the PULUMI_CONFIG json the java sdk reads,
+# secure values are skipped
+#
+#   PULUMI_CONFIG="$(scripts/stack-config.sh dev)" java -cp ... myproject.StackTrainer
+set -euo pipefail
+
+stack="${1:?usage: stack-config.sh <stack>}"
+file="$(dirname "$0")/../Pulumi.${stack}.yaml"
+
+awk '
+BEGIN { printf "{"; sep = "" }
+/^config:/ { in_config = 1; next }
+/^[^ #]/ { in_config = 0 }
+in_config && /^  [^ #]/ {
+    line = substr($0, 3)
+    i = index(line, ": ")
+    if (i == 0) next
+    key = substr(line, 1, i - 1)
+    value = substr(line, i + 2)
+    gsub(/^"|"$/, "", value)
+    gsub(/\\/, "\\\\", value)
+    gsub(/"/, "\\\"", value)
+    printf "%s\"%s\":\"%s\"", sep, key, value
+    sep = ","
+}
+END { print "}" }
+' "$file"
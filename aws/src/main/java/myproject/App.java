@@ -2,45 +2,108 @@ package myproject;
 
 import com.pulumi.Context;
 import com.pulumi.Pulumi;
+import com.pulumi.asset.AssetArchive;
 import com.pulumi.asset.FileAsset;
 import com.pulumi.aws.AwsFunctions;
+import com.pulumi.aws.Provider;
+import com.pulumi.aws.ProviderArgs;
 import com.pulumi.aws.alb.*;
 import com.pulumi.aws.alb.inputs.ListenerDefaultActionArgs;
+import com.pulumi.aws.alb.inputs.ListenerDefaultActionForwardArgs;
+import com.pulumi.aws.alb.inputs.ListenerDefaultActionForwardTargetGroupArgs;
+import com.pulumi.aws.alb.inputs.LoadBalancerAccessLogsArgs;
 import com.pulumi.aws.alb.inputs.TargetGroupHealthCheckArgs;
+import com.pulumi.aws.appautoscaling.inputs.PolicyTargetTrackingScalingPolicyConfigurationArgs;
+import com.pulumi.aws.appautoscaling.inputs.PolicyTargetTrackingScalingPolicyConfigurationPredefinedMetricSpecificationArgs;
+import com.pulumi.aws.athena.NamedQuery;
+import com.pulumi.aws.athena.NamedQueryArgs;
+import com.pulumi.aws.athena.Workgroup;
+import com.pulumi.aws.athena.WorkgroupArgs;
+import com.pulumi.aws.athena.inputs.WorkgroupConfigurationArgs;
+import com.pulumi.aws.athena.inputs.WorkgroupConfigurationResultConfigurationArgs;
 import com.pulumi.aws.autoscaling.*;
 import com.pulumi.aws.autoscaling.Group;
 import com.pulumi.aws.autoscaling.GroupArgs;
 import com.pulumi.aws.autoscaling.Policy;
 import com.pulumi.aws.autoscaling.PolicyArgs;
+import com.pulumi.aws.autoscaling.inputs.GroupInstanceRefreshArgs;
+import com.pulumi.aws.autoscaling.inputs.GroupInstanceRefreshPreferencesArgs;
 import com.pulumi.aws.autoscaling.inputs.GroupLaunchTemplateArgs;
 import com.pulumi.aws.autoscaling.inputs.GroupTagArgs;
+import com.pulumi.aws.cloudwatch.LogGroup;
+import com.pulumi.aws.cloudwatch.LogGroupArgs;
+import com.pulumi.aws.cloudwatch.LogMetricFilter;
+import com.pulumi.aws.cloudwatch.LogMetricFilterArgs;
 import com.pulumi.aws.cloudwatch.MetricAlarm;
 import com.pulumi.aws.cloudwatch.MetricAlarmArgs;
+import com.pulumi.aws.cloudwatch.inputs.LogMetricFilterMetricTransformationArgs;
+import com.pulumi.aws.dynamodb.Table;
+import com.pulumi.aws.dynamodb.TableArgs;
+import com.pulumi.aws.dynamodb.inputs.TableAttributeArgs;
+import com.pulumi.aws.dynamodb.inputs.TablePointInTimeRecoveryArgs;
+import com.pulumi.aws.dynamodb.inputs.TableTtlArgs;
 import com.pulumi.aws.ec2.*;
 import com.pulumi.aws.ec2.inputs.*;
+import com.pulumi.aws.elb.ElbFunctions;
+import com.pulumi.aws.elb.inputs.GetServiceAccountArgs;
+import com.pulumi.aws.glue.CatalogDatabase;
+import com.pulumi.aws.glue.CatalogDatabaseArgs;
+import com.pulumi.aws.glue.CatalogTable;
+import com.pulumi.aws.glue.CatalogTableArgs;
+import com.pulumi.aws.glue.inputs.CatalogTablePartitionKeyArgs;
+import com.pulumi.aws.glue.inputs.CatalogTableStorageDescriptorArgs;
+import com.pulumi.aws.glue.inputs.CatalogTableStorageDescriptorColumnArgs;
+import com.pulumi.aws.glue.inputs.CatalogTableStorageDescriptorSerDeInfoArgs;
 import com.pulumi.aws.iam.*;
 import com.pulumi.aws.inputs.GetAvailabilityZonesArgs;
+import com.pulumi.aws.inputs.GetCallerIdentityArgs;
 import com.pulumi.aws.lambda.*;
 import com.pulumi.aws.lambda.inputs.FunctionEnvironmentArgs;
+import com.pulumi.aws.lambda.inputs.FunctionVpcConfigArgs;
+import com.pulumi.aws.rds.Cluster;
+import com.pulumi.aws.rds.ClusterArgs;
+import com.pulumi.aws.rds.ClusterInstance;
+import com.pulumi.aws.rds.ClusterInstanceArgs;
+import com.pulumi.aws.rds.ClusterParameterGroup;
+import com.pulumi.aws.rds.ClusterParameterGroupArgs;
 import com.pulumi.aws.rds.ParameterGroup;
 import com.pulumi.aws.rds.ParameterGroupArgs;
 import com.pulumi.aws.rds.SubnetGroup;
 import com.pulumi.aws.rds.SubnetGroupArgs;
+import com.pulumi.aws.rds.inputs.ClusterParameterGroupParameterArgs;
+import com.pulumi.aws.rds.inputs.ClusterServerlessv2ScalingConfigurationArgs;
 import com.pulumi.aws.rds.inputs.ParameterGroupParameterArgs;
 import com.pulumi.aws.route53.Record;
 import com.pulumi.aws.route53.RecordArgs;
 import com.pulumi.aws.route53.inputs.RecordAliasArgs;
+import com.pulumi.aws.route53.inputs.RecordLatencyRoutingPolicyArgs;
 import com.pulumi.aws.s3.Bucket;
+import com.pulumi.aws.s3.BucketArgs;
 import com.pulumi.aws.s3.BucketObject;
 import com.pulumi.aws.s3.BucketObjectArgs;
+import com.pulumi.aws.s3.BucketPolicy;
+import com.pulumi.aws.s3.BucketPolicyArgs;
+import com.pulumi.aws.s3.inputs.BucketLifecycleRuleArgs;
+import com.pulumi.aws.s3.inputs.BucketLifecycleRuleExpirationArgs;
+import com.pulumi.aws.s3.inputs.BucketLifecycleRuleNoncurrentVersionExpirationArgs;
+import com.pulumi.aws.s3.inputs.BucketVersioningArgs;
 import com.pulumi.aws.sns.Topic;
 import com.pulumi.aws.sns.TopicArgs;
 import com.pulumi.aws.sns.TopicSubscription;
 import com.pulumi.aws.sns.TopicSubscriptionArgs;
+import com.pulumi.aws.synthetics.Canary;
+import com.pulumi.aws.synthetics.CanaryArgs;
+import com.pulumi.aws.synthetics.inputs.CanaryRunConfigArgs;
+import com.pulumi.aws.synthetics.inputs.CanaryScheduleArgs;
 import com.pulumi.core.Output;
+import com.pulumi.deployment.InvokeOptions;
 import com.pulumi.gcp.serviceaccount.*;
 import com.pulumi.gcp.storage.BucketIAMMember;
 import com.pulumi.gcp.storage.BucketIAMMemberArgs;
+import com.pulumi.gcp.storage.inputs.BucketLifecycleRuleActionArgs;
+import com.pulumi.gcp.storage.inputs.BucketLifecycleRuleConditionArgs;
+import com.pulumi.resources.CustomResourceOptions;
+import com.pulumi.resources.Resource;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -56,9 +119,34 @@ public class App {
         var config = ctx.config();
 
         /*
-        create vpc
+        get regions
+         */
+        // the first region is the primary one and must match aws:region, it keeps the
+        // default provider and the original resource names
+        Optional<String> awsRegion = ctx.config("aws").get("region");
+        // check config
+        if(awsRegion.isEmpty()) {
+            throw new RuntimeException("aws:region must be configured");
+        }
+        String primaryRegion = awsRegion.get();
+        List<String> regions = Arrays.stream(config.get("regions").orElse(primaryRegion).split(","))
+                .map(String::trim)
+                .collect(Collectors.toList());
+        if(!regions.get(0).equals(primaryRegion) || new HashSet<>(regions).size() != regions.size()) {
+            throw new RuntimeException("the first entry of regions must be aws:region and regions must not repeat");
+        }
+        // replica: secondary regions are warm standbys on a cross region replica of the primary db, they
+        // cannot write so route53 keeps sending every user to the primary until a replica is promoted
+        // independent: every region gets its own db and a latency record
+        String dbRegionStrategy = config.get("dbRegionStrategy").orElse("independent");
+        if(!dbRegionStrategy.equals("replica") && !dbRegionStrategy.equals("independent")) {
+            throw new RuntimeException("dbRegionStrategy must be replica or independent");
+        }
+        boolean latencyRouting = regions.size() > 1 && dbRegionStrategy.equals("independent");
+
+        /*
+        get config shared by all regions
          */
-        // get pulumi.dev.yaml config
         Optional<String> vpcTagNameKey = config.get("vpcTagNameKey");
         Optional<String> vpcTagNameValue = config.get("vpcTagNameValue");
         Optional<String> cidrBlockOpt = config.get("cidrBlock");
@@ -70,15 +158,7 @@ public class App {
         String vpcName = vpcTagNameValue.get();
         String vpcTagName = vpcTagNameKey.get();
         String cidrBlock = cidrBlockOpt.get();
-        // create vpc
-        var main = new Vpc(vpcName, VpcArgs.builder()
-                .cidrBlock(cidrBlock)
-                .tags(Map.of(vpcTagName, vpcName))
-                .build());
 
-        /*
-        create internet gateway
-         */
         Optional<String> igwTagNameKey = config.get("igwTagNameKey");
         Optional<String> igwTagNameValue = config.get("igwTagNameValue");
         // check config
@@ -88,14 +168,7 @@ public class App {
         // get config value to string
         String igwTagName = igwTagNameKey.get();
         String igwName = igwTagNameValue.get();
-        var gw = new InternetGateway(igwName, InternetGatewayArgs.builder()
-                .vpcId(main.id())
-                .tags(Map.of(igwTagName, igwName))
-                .build());
 
-        /*
-        create route table
-         */
         Optional<String> routeTableTagNameKey = config.get("rtTagNameKey");
         Optional<String> publicRouteTableValue = config.get("publicRtValue");
         Optional<String> privateRouteTableValue = config.get("privateRtValue");
@@ -107,24 +180,7 @@ public class App {
         String routeTableTagName = routeTableTagNameKey.get();
         String publicRtValue = publicRouteTableValue.get();
         String privateRtValue = privateRouteTableValue.get();
-        var publicRouteTable = new RouteTable(publicRtValue, RouteTableArgs.builder()
-                .vpcId(main.id())
-                .routes(Collections.singletonList(
-                        RouteTableRouteArgs.builder()
-                                .gatewayId(gw.id())
-                                .cidrBlock("0.0.0.0/0")
-                                .build()
-                ))
-                .tags(Map.of(routeTableTagName, publicRtValue))
-                .build());
-        var privateRouteTable = new RouteTable(privateRtValue, RouteTableArgs.builder()
-                .vpcId(main.id())
-                .tags(Map.of(routeTableTagName, privateRtValue))
-                .build());
 
-        /*
-        create subnet
-        */
         Optional<String> subnetTagNameKey = config.get("subnetTagNameKey");
         Optional<String> publicSubnetName = config.get("publicSubnetTagNameValue");
         Optional<String> privateSubnetName = config.get("privateSubnetTagNameValue");
@@ -137,906 +193,1892 @@ public class App {
         String publicSubnetTagName = publicSubnetName.get();
         String privateSubnetTagName = privateSubnetName.get();
 
-        // get availability zone in region
-        final var azs = AwsFunctions.getAvailabilityZones(GetAvailabilityZonesArgs.builder().build());
+        Optional<String> securityGroupTagNameKey = config.get("sgTagNameKey");
+        Optional<String> securityGroupTagNameValue = config.get("sgTagNameValue");
+        // check config
+        if (securityGroupTagNameKey.isEmpty() || securityGroupTagNameValue.isEmpty()) {
+            throw new RuntimeException("sgTagNameKey and sgTagNameValue must be configured");
+        }
+        // get config value to string
+        String sgTagName = securityGroupTagNameKey.get();
+        String sgTagNameValue = securityGroupTagNameValue.get();
 
-    // set azs to list
-    azs.applyValue(
-        availabilityZones -> {
-          List<String> zoneNames = availabilityZones.names();
-          if (zoneNames != null) {
-            // Print each AZ in the region to the console.
-            zoneNames.forEach(zoneName -> System.out.println("Availability Zone: " + zoneName));
-          } else {
-            System.out.println("No availability zones.");
-          }
+        // get db engine config, mariadb (optionally multi-az) or aurora mysql serverless v2
+        String dbEngine = config.get("dbEngine").orElse("mariadb");
+        // check config
+        if (!dbEngine.equals("mariadb") && !dbEngine.equals("aurora-mysql")) {
+            throw new RuntimeException("dbEngine must be mariadb or aurora-mysql");
+        }
+        boolean isAurora = dbEngine.equals("aurora-mysql");
+        // switching dbEngine replaces the database, so by default a deleted database leaves a final snapshot
+        boolean dbFinalSnapshot = config.getBoolean("dbFinalSnapshot").orElse(true);
+        if (isAurora && regions.size() > 1 && dbRegionStrategy.equals("replica")) {
+            throw new RuntimeException("aurora-mysql only supports dbRegionStrategy independent");
+        }
+        // both engines speak the mysql protocol, only the hibernate dialect differs
+        String dbHibernateDialect =
+                isAurora
+                        ? "org.hibernate.dialect.MySQLDialect"
+                        : "org.hibernate.dialect.MariaDBDialect";
 
-          assert zoneNames != null;
-          int zoneCount = zoneNames.size();
+        Optional<String> dbSecurityGroupTagNameValue = config.get("dbSgTagNameValue");
+        // check config
+        if (dbSecurityGroupTagNameValue.isEmpty()) {
+            throw new RuntimeException("dbSgTagNameValue must be configured");
+        }
+        // get config value to string
+        String dbSgTagNameValue = dbSecurityGroupTagNameValue.get();
 
-          int zonesToUse = Math.min(zoneCount, 3);
+        Optional<String> dbParameterGroupName = config.get("dbParameterGroupName");
+        Optional<String> dbParameterGroupFamily = config.get("dbParameterGroupFamily");
+        // check config
+        if (dbParameterGroupName.isEmpty() || dbParameterGroupFamily.isEmpty()) {
+            throw new RuntimeException(
+                    "dbParameterGroupName and dbParameterGroupFamily must be configured");
+        }
+        // get config value to string
+        String dbParameterGroupNameValue = dbParameterGroupName.get();
+        String dbParameterGroupFamilyValue = dbParameterGroupFamily.get();
 
-          List<Subnet> publicSubnets = new ArrayList<>();
-          List<Subnet> privateSubnets = new ArrayList<>();
+        // get db monitoring config, everything is off unless the stack enables it
+        boolean dbSlowQueryLogEnabled = config.getBoolean("dbSlowQueryLogEnabled").orElse(false);
+        String dbLongQueryTime = config.get("dbLongQueryTime").orElse("1");
+        boolean dbPerformanceInsightsEnabled =
+                config.getBoolean("dbPerformanceInsightsEnabled").orElse(false);
+        int dbPerformanceInsightsRetention =
+                config.getInteger("dbPerformanceInsightsRetention").orElse(7);
+        int dbMonitoringInterval = config.getInteger("dbMonitoringInterval").orElse(0);
+        // check config
+        if (!List.of(0, 1, 5, 10, 15, 30, 60).contains(dbMonitoringInterval)) {
+            throw new RuntimeException(
+                    "dbMonitoringInterval must be one of 0, 1, 5, 10, 15, 30 or 60");
+        }
 
-          // get base ip
-          String[] parts = cidrBlock.split("\\.");
-          String baseIp = parts[0] + "." + parts[1] + ".";
+        // slow query log has to go to a file so that rds can export it to cloudwatch
+        Map<String, String> dbSlowQueryLogParameters = new LinkedHashMap<>();
+        if (dbSlowQueryLogEnabled) {
+            dbSlowQueryLogParameters.put("slow_query_log", "1");
+            dbSlowQueryLogParameters.put("long_query_time", dbLongQueryTime);
+            dbSlowQueryLogParameters.put("log_output", "FILE");
+        }
 
-          for (int i = 0; i < zonesToUse; i++) {
+        Optional<String> dbTagNameKey = config.get("dbTagNameKey");
+        Optional<String> dbTagNameValue = config.get("dbTagNameValue");
+        Optional<String> dbInstanceName = config.get("dbInstanceName");
+        Optional<String> dbInstanceClass = config.get("dbInstanceClass");
+        Optional<String> dbMasterUsername = config.get("dbMasterUsername");
+        Optional<String> dbMasterPassword = config.get("dbMasterPassword");
+        // check config
+        if (dbTagNameKey.isEmpty()
+                || dbTagNameValue.isEmpty()
+                || dbInstanceName.isEmpty()
+                || dbInstanceClass.isEmpty()
+                || dbMasterUsername.isEmpty()
+                || dbMasterPassword.isEmpty()) {
+            throw new RuntimeException(
+                    "dbTagNameKey, dbTagNameValue, dbInstanceName, dbInstanceClass, dbMasterUsername and dbMasterPassword must be configured");
+        }
+        // get config value to string
+        String dbTagNameKeyString = dbTagNameKey.get();
+        String dbTagNameValueString = dbTagNameValue.get();
+        String dbInstanceNameString = dbInstanceName.get();
+        String dbInstanceClassString = dbInstanceClass.get();
+        String dbMasterUsernameString = dbMasterUsername.get();
+        String dbMasterPasswordString = dbMasterPassword.get();
 
-            String subnetCidrBlockPublic = baseIp + (i * 2) + ".0/24";
-            String subnetCidrBlockPrivate = baseIp + (i * 2 + 1) + ".0/24";
+        Optional<String> hostedZoneId = config.get("zoneId");
+        Optional<String> domainName = config.get("domainName");
+        // check config
+        if (hostedZoneId.isEmpty() || domainName.isEmpty()) {
+            throw new RuntimeException("zoneId and domainName must be configured");
+        }
+        // get config value to string
+        String zoneId = hostedZoneId.get();
+        String domainNameString = domainName.get();
 
-            var publicSubnet =
-                new Subnet(
-                    publicSubnetTagName + i,
-                    SubnetArgs.builder()
-                        .vpcId(main.id())
-                        .cidrBlock(subnetCidrBlockPublic)
-                        .availabilityZone(zoneNames.get(i))
-                        .tags(Map.of(subnetTagName, publicSubnetTagName + i))
-                        .build());
+        /*
+        create gcp service account, a stack without cloud access (e.g. localstack) can turn gcp off
+         */
+        boolean gcpEnabled = config.getBoolean("gcpEnabled").orElse(true);
+        final Output<String> gcpCredentials;
+        final Output<String> gcsBucketName;
+        if (gcpEnabled) {
+            Optional<String> accountNameConfig = config.get("gcpAccountName");
+            Optional<String> projectID = config.get("projectID");
+            // check config
+            if (accountNameConfig.isEmpty() || projectID.isEmpty()) {
+                throw new RuntimeException("accountName must be configured");
+            }
+            // get config value to string
+            String accountName = accountNameConfig.get();
+            String projectIDString = projectID.get();
 
-            var privateSubnet =
-                new Subnet(
-                    privateSubnetTagName + i,
-                    SubnetArgs.builder()
-                        .vpcId(main.id())
-                        .cidrBlock(subnetCidrBlockPrivate)
-                        .availabilityZone(zoneNames.get(i))
-                        .tags(Map.of(subnetTagName, privateSubnetTagName + i))
-                        .build());
+            // gcp service account
+            var serviceAccount = new Account("serviceAccount", AccountArgs.builder()
+                    .displayName(accountName)
+                    .accountId(accountName)
+                    .project(projectIDString)
+                    .build());
 
-            publicSubnets.add(publicSubnet);
-            privateSubnets.add(privateSubnet);
-          }
-
-          // create public route table association
-          for (int i = 0; i < publicSubnets.size(); i++) {
-            Subnet publicSubnet = publicSubnets.get(i);
-            var publicSubnetAssociation =
-                new RouteTableAssociation(
-                    "publicSubnetAssociation" + i,
-                    RouteTableAssociationArgs.builder()
-                        .subnetId(publicSubnet.id())
-                        .routeTableId(publicRouteTable.id())
-                        .build());
-          }
-          // create private route table association
-          for (int i = 0; i < privateSubnets.size(); i++) {
-            Subnet privateSubnet = privateSubnets.get(i);
-            var privateSubnetAssociation =
-                new RouteTableAssociation(
-                    "privateSubnetAssociation" + i,
-                    RouteTableAssociationArgs.builder()
-                        .subnetId(privateSubnet.id())
-                        .routeTableId(privateRouteTable.id())
+            // get bucket config, by default the gcp region nearest to the primary aws region so that the
+            // lambda upload stays short
+            Map<String, String> nearestGcpRegion = Map.of(
+                    "us-east-1", "us-east4",
+                    "us-east-2", "us-east5",
+                    "us-west-1", "us-west2",
+                    "us-west-2", "us-west1",
+                    "ca-central-1", "northamerica-northeast1",
+                    "eu-west-1", "europe-west1",
+                    "eu-west-2", "europe-west2",
+                    "eu-central-1", "europe-west3");
+            String gcsBucketLocation = config.get("gcsBucketLocation")
+                    .orElse(nearestGcpRegion.getOrDefault(primaryRegion, "US"));
+            int gcsObjectRetentionDays = config.getInteger("gcsObjectRetentionDays").orElse(365);
+            // the deployed lambda still uploads to the bucket it was written for, keep its binding until the
+            // lambda reads gcsBucketName
+            boolean legacyGcsBucketBinding = config.getBoolean("legacyGcsBucketBinding").orElse(true);
+            // check config
+            if (gcsObjectRetentionDays < 1) {
+                throw new RuntimeException("gcsObjectRetentionDays must be positive");
+            }
+
+            // create the bucket the lambda uploads submissions to, objects are single zip files of a few MB
+            // that are written once, so a regional standard bucket without versioning fits them
+            var gcsBucketArgs = com.pulumi.gcp.storage.BucketArgs.builder()
+                    .project(projectIDString)
+                    .location(gcsBucketLocation)
+                    .storageClass("STANDARD")
+                    .uniformBucketLevelAccess(true)
+                    .publicAccessPrevention("enforced")
+                    .lifecycleRules(
+                            com.pulumi.gcp.storage.inputs.BucketLifecycleRuleArgs.builder()
+                                    .action(BucketLifecycleRuleActionArgs.builder()
+                                            .type("Delete")
+                                            .build())
+                                    .condition(BucketLifecycleRuleConditionArgs.builder()
+                                            .age(gcsObjectRetentionDays)
+                                            .build())
+                                    .build(),
+                            com.pulumi.gcp.storage.inputs.BucketLifecycleRuleArgs.builder()
+                                    .action(BucketLifecycleRuleActionArgs.builder()
+                                            .type("AbortIncompleteMultipartUpload")
+                                            .build())
+                                    .condition(BucketLifecycleRuleConditionArgs.builder()
+                                            .age(1)
+                                            .build())
+                                    .build());
+            // bucket names are global, without gcsBucketName pulumi adds a random suffix
+            config.get("gcsBucketName").ifPresent(gcsBucketArgs::name);
+            var gcsBucket = new com.pulumi.gcp.storage.Bucket("gcsBucket", gcsBucketArgs.build());
+
+            // bind Storage Object User role to service account
+            var gcsBucketRole = new BucketIAMMember("gcsBucketRole", BucketIAMMemberArgs.builder()
+                    .bucket(gcsBucket.name())
+                    .role("roles/storage.objectUser")
+                    .member(serviceAccount.email().applyValue(email -> "serviceAccount:" + email))
+                    .build());
+            if (legacyGcsBucketBinding) {
+                var serviceAccountRole = new BucketIAMMember("serviceAccountRole", BucketIAMMemberArgs.builder()
+                        .bucket("csye6225-demo-bucket")
+                        .role("roles/storage.objectUser")
+                        .member(serviceAccount.email().applyValue(email -> "serviceAccount:" + email))
                         .build());
-          }
-          // create a security group
-          Optional<String> securityGroupTagNameKey = config.get("sgTagNameKey");
-          Optional<String> securityGroupTagNameValue = config.get("sgTagNameValue");
-          // check config
-          if (securityGroupTagNameKey.isEmpty() || securityGroupTagNameValue.isEmpty()) {
-            throw new RuntimeException("sgTagNameKey and sgTagNameValue must be configured");
-          }
-          // get config value to string
-          String sgTagName = securityGroupTagNameKey.get();
-          String sgTagNameValue = securityGroupTagNameValue.get();
-
-          var loadBalancerSecurityGroup =
-              new SecurityGroup(
-                  "loadBalancerSecurityGroup",
-                  SecurityGroupArgs.builder()
-                      .vpcId(main.id())
-                      .description("Security group for load balancer")
-                      .ingress(
-                          Collections.singletonList(
-                              //
-                              // SecurityGroupIngressArgs.builder()
-                              //
-                              // .description("HTTP")
-                              //
-                              // .fromPort(80)
-                              //
-                              // .toPort(80)
-                              //
-                              // .protocol("tcp")
-                              //
-                              // .cidrBlocks("0.0.0.0/0")
-                              //                                                          .build(),
-                              SecurityGroupIngressArgs.builder()
-                                  .description("HTTPS")
-                                  .fromPort(443)
-                                  .toPort(443)
-                                  .protocol("tcp")
-                                  .cidrBlocks("0.0.0.0/0")
-                                  .build()))
-                      .egress(
-                          SecurityGroupEgressArgs.builder()
-                              .fromPort(0)
-                              .toPort(0)
-                              .protocol("-1")
-                              .cidrBlocks("0.0.0.0/0")
-                              .ipv6CidrBlocks("::/0")
-                              .build())
-                      .tags(Map.of("name", "loadBalancerSecurityGroup"))
-                      .build());
-
-          var appSecurityGroup =
-              new SecurityGroup(
-                  sgTagNameValue,
-                  SecurityGroupArgs.builder()
-                      .vpcId(main.id())
-                      .description("Security group for web application")
-                      .ingress(
-                          Arrays.asList(
-                              SecurityGroupIngressArgs.builder()
-                                  .description("SSH")
-                                  .fromPort(22)
-                                  .toPort(22)
-                                  .protocol("tcp")
-                                  .cidrBlocks("0.0.0.0/0")
-                                  .build(),
-                              SecurityGroupIngressArgs.builder()
-                                  .description("webapp")
-                                  .fromPort(8080) // replace with your application port
-                                  .toPort(8080) // replace with your application port
-                                  .protocol("tcp")
-                                  .securityGroups(
-                                      loadBalancerSecurityGroup.id().applyValue(List::of))
-                                  .build()))
-                      .egress(
-                          SecurityGroupEgressArgs.builder()
-                              .fromPort(0)
-                              .toPort(0)
-                              .protocol("-1")
-                              .cidrBlocks("0.0.0.0/0")
-                              .ipv6CidrBlocks("::/0")
-                              .build())
-                      .tags(Map.of(sgTagName, sgTagNameValue))
-                      .build());
-
-          Output<String> sgId = appSecurityGroup.id();
-
-          Optional<String> AMiId = config.get("amiId");
-          // check config
-          if (AMiId.isEmpty()) {
-            throw new RuntimeException("amiId must be configured");
-          }
-          // get config value to string
-          String amiId = AMiId.get();
-
-          sgId.applyValue(
-              id -> {
-                // create a database security group
-                Optional<String> dbSecurityGroupTagNameValue = config.get("dbSgTagNameValue");
-                // check config
-                if (dbSecurityGroupTagNameValue.isEmpty()) {
-                  throw new RuntimeException("dbSgTagNameValue must be configured");
+            }
+
+            // create access key
+            var serviceAccountKey = new Key("serviceAccountKey", KeyArgs.builder()
+                    .serviceAccountId(serviceAccount.name())
+                    .publicKeyType("TYPE_X509_PEM_FILE")
+                    .build());
+
+            gcpCredentials = serviceAccountKey.privateKey();
+            gcsBucketName = gcsBucket.name();
+        } else {
+            gcpCredentials = Output.of("");
+            gcsBucketName = Output.of("");
+        }
+
+        /*
+        create sns topic
+         */
+        var topic = new Topic("csye6225", TopicArgs.builder().displayName("csye6225").build());
+
+        /*
+        create dynamodb table
+         */
+        String dynamoTableName = config.get("dynamoTableName").orElse("csye6225-email-tracking");
+        // the table was created by hand, its key schema comes from the real table through
+        // scripts/import-table.sh and is never guessed, a different key replaces the table
+        Optional<String> dynamoHashKeyConfig = config.get("dynamoHashKey");
+        Optional<String> dynamoHashKeyTypeConfig = config.get("dynamoHashKeyType");
+        Optional<String> dynamoRangeKey = config.get("dynamoRangeKey");
+        String dynamoRangeKeyType = config.get("dynamoRangeKeyType").orElse("S");
+        // check config
+        if (dynamoHashKeyConfig.isEmpty() || dynamoHashKeyTypeConfig.isEmpty()) {
+            throw new RuntimeException(
+                    "dynamoHashKey and dynamoHashKeyType must be configured, run scripts/import-table.sh <stack>");
+        }
+        String dynamoHashKey = dynamoHashKeyConfig.get();
+        String dynamoHashKeyType = dynamoHashKeyTypeConfig.get();
+        if (!List.of("S", "N", "B").contains(dynamoHashKeyType) || !List.of("S", "N", "B").contains(dynamoRangeKeyType)) {
+            throw new RuntimeException("dynamoHashKeyType and dynamoRangeKeyType must be S, N or B");
+        }
+        String dynamoTtlAttribute = config.get("dynamoTtlAttribute").orElse("expiresAt");
+        // the lambda writes the ttl attribute, epoch seconds this many days after the record
+        int dynamoRecordRetentionDays = config.getInteger("dynamoRecordRetentionDays").orElse(90);
+        String dynamoBillingMode = config.get("dynamoBillingMode").orElse("PAY_PER_REQUEST");
+        // check config
+        if (!dynamoBillingMode.equals("PAY_PER_REQUEST") && !dynamoBillingMode.equals("PROVISIONED")) {
+            throw new RuntimeException("dynamoBillingMode must be PAY_PER_REQUEST or PROVISIONED");
+        }
+        if (dynamoRecordRetentionDays < 1) {
+            throw new RuntimeException("dynamoRecordRetentionDays must be positive");
+        }
+        boolean dynamoProvisioned = dynamoBillingMode.equals("PROVISIONED");
+        int dynamoMinCapacity = config.getInteger("dynamoMinCapacity").orElse(5);
+        int dynamoMaxCapacity = config.getInteger("dynamoMaxCapacity").orElse(50);
+        double dynamoTargetUtilization = config.getDouble("dynamoTargetUtilization").orElse(70.0);
+
+        // table used by the lambda function to record email and download state, old records
+        // are dropped by ttl
+        var dynamoTableArgs = TableArgs.builder()
+                .name(dynamoTableName)
+                .billingMode(dynamoBillingMode)
+                .hashKey(dynamoHashKey)
+                .ttl(TableTtlArgs.builder()
+                        .attributeName(dynamoTtlAttribute)
+                        .enabled(true)
+                        .build())
+                .pointInTimeRecovery(TablePointInTimeRecoveryArgs.builder().enabled(true).build())
+                .tags(Map.of("Name", dynamoTableName));
+        List<TableAttributeArgs> dynamoAttributes = new ArrayList<>();
+        dynamoAttributes.add(TableAttributeArgs.builder().name(dynamoHashKey).type(dynamoHashKeyType).build());
+        if (dynamoRangeKey.isPresent()) {
+            dynamoTableArgs.rangeKey(dynamoRangeKey.get());
+            dynamoAttributes.add(TableAttributeArgs.builder().name(dynamoRangeKey.get()).type(dynamoRangeKeyType).build());
+        }
+        dynamoTableArgs.attributes(dynamoAttributes);
+        if (dynamoProvisioned) {
+            dynamoTableArgs.readCapacity(dynamoMinCapacity).writeCapacity(dynamoMinCapacity);
+        }
+        var dynamoTable = new Table("dynamoTable", dynamoTableArgs.build(), CustomResourceOptions.builder()
+                // capacity is owned by application auto scaling once provisioned
+                .ignoreChanges(dynamoProvisioned ? List.of("readCapacity", "writeCapacity") : List.of())
+                .build());
+
+        // scale provisioned read and write capacity on utilization
+        if (dynamoProvisioned) {
+            for (String dimension : List.of("Read", "Write")) {
+                var dynamoScalingTarget = new com.pulumi.aws.appautoscaling.Target(
+                        "dynamo" + dimension + "Target",
+                        com.pulumi.aws.appautoscaling.TargetArgs.builder()
+                                .minCapacity(dynamoMinCapacity)
+                                .maxCapacity(dynamoMaxCapacity)
+                                .resourceId(dynamoTable.name().applyValue(n -> "table/" + n))
+                                .scalableDimension("dynamodb:table:" + dimension + "CapacityUnits")
+                                .serviceNamespace("dynamodb")
+                                .build());
+                var dynamoScalingPolicy = new com.pulumi.aws.appautoscaling.Policy(
+                        "dynamo" + dimension + "Policy",
+                        com.pulumi.aws.appautoscaling.PolicyArgs.builder()
+                                .policyType("TargetTrackingScaling")
+                                .resourceId(dynamoScalingTarget.resourceId())
+                                .scalableDimension(dynamoScalingTarget.scalableDimension())
+                                .serviceNamespace(dynamoScalingTarget.serviceNamespace())
+                                .targetTrackingScalingPolicyConfiguration(
+                                        PolicyTargetTrackingScalingPolicyConfigurationArgs.builder()
+                                                .predefinedMetricSpecification(
+                                                        PolicyTargetTrackingScalingPolicyConfigurationPredefinedMetricSpecificationArgs.builder()
+                                                                .predefinedMetricType("DynamoDB" + dimension + "CapacityUtilization")
+                                                                .build())
+                                                .targetValue(dynamoTargetUtilization)
+                                                .build())
+                                .build());
+            }
+        }
+
+        /*
+        create iam roles, iam is global so every region shares them
+         */
+        // create ec2 service role and add CloudWatchAgentServerPolicy
+        var logRole = new Role("logRole", RoleArgs.builder()
+                .assumeRolePolicy(serializeJson(
+                        jsonObject(
+                                jsonProperty("Version", "2012-10-17"),
+                                jsonProperty("Statement", jsonArray(jsonObject(
+                                        jsonProperty("Effect", "Allow"),
+                                        jsonProperty("Principal", jsonObject(
+                                                jsonProperty("Service", jsonArray(
+                                                        "ec2.amazonaws.com",
+                                                        "lambda.amazonaws.com")))),
+                                        jsonProperty("Action", "sts:AssumeRole")))))))
+                .build());
+
+        var logPolicy = new RolePolicy("logPolicy", RolePolicyArgs.builder()
+                .role(logRole.id())
+                .policy(serializeJson(
+                        jsonObject(
+                                jsonProperty("Version", "2012-10-17"),
+                                jsonProperty("Statement", jsonArray(
+                                        jsonObject(
+                                                jsonProperty("Effect", "Allow"),
+                                                jsonProperty("Action", jsonArray(
+                                                        "cloudwatch:PutMetricData",
+                                                        "ec2:DescribeVolumes",
+                                                        "ec2:DescribeTags",
+                                                        "logs:PutLogEvents",
+                                                        "logs:DescribeLogStreams",
+                                                        "logs:DescribeLogGroups",
+                                                        "logs:CreateLogStream",
+                                                        "SNS:Subscribe",
+                                                        "SNS:SetTopicAttributes",
+                                                        "SNS:RemovePermission",
+                                                        "SNS:Publish",
+                                                        "SNS:ListSubscriptionsByTopic",
+                                                        "SNS:GetTopicAttributes",
+                                                        "SNS:DeleteTopic",
+                                                        "SNS:AddPermission",
+                                                        "SNS:ListTopics",
+                                                        "lambda:*")),
+                                                jsonProperty("Resource", "*")),
+                                        jsonObject(
+                                                jsonProperty("Effect", "Allow"),
+                                                jsonProperty("Action", jsonArray("ssm:GetParameter")),
+                                                jsonProperty("Resource", "arn:aws:ssm:*:*:parameter/AmazonCloudWatch-*")))))))
+                .build());
+
+        // only allow access to the managed table and its indexes
+        var dynamoPolicy = new RolePolicy("dynamoPolicy", RolePolicyArgs.builder()
+                .role(logRole.id())
+                .policy(dynamoTable.arn().applyValue(tableArn -> serializeJson(
+                        jsonObject(
+                                jsonProperty("Version", "2012-10-17"),
+                                jsonProperty("Statement", jsonArray(jsonObject(
+                                        jsonProperty("Effect", "Allow"),
+                                        jsonProperty("Action", jsonArray(
+                                                "dynamodb:GetItem",
+                                                "dynamodb:BatchGetItem",
+                                                "dynamodb:Query",
+                                                "dynamodb:PutItem",
+                                                "dynamodb:UpdateItem",
+                                                "dynamodb:DeleteItem",
+                                                "dynamodb:BatchWriteItem",
+                                                "dynamodb:ConditionCheckItem",
+                                                "dynamodb:DescribeTable")),
+                                        jsonProperty("Resource", jsonArray(
+                                                tableArn,
+                                                tableArn + "/index/*")))))))))
+                .build());
+
+        // create ec2 instance profile
+        var instanceProfile = new InstanceProfile("logInstanceProfile", InstanceProfileArgs.builder()
+                .role(logRole.id())
+                .build());
+
+        // enhanced monitoring, rds needs its own role to publish os metrics
+        List<Resource> dbInstanceDependencies = new ArrayList<>();
+        Output<String> dbMonitoringRoleArn = null;
+        if (dbMonitoringInterval > 0) {
+            var dbMonitoringRole = new Role("dbMonitoringRole", RoleArgs.builder()
+                    .assumeRolePolicy(serializeJson(
+                            jsonObject(
+                                    jsonProperty("Version", "2012-10-17"),
+                                    jsonProperty("Statement", jsonArray(jsonObject(
+                                            jsonProperty("Effect", "Allow"),
+                                            jsonProperty("Principal", jsonObject(
+                                                    jsonProperty("Service", "monitoring.rds.amazonaws.com"))),
+                                            jsonProperty("Action", "sts:AssumeRole")))))))
+                    .build());
+            var dbMonitoringRoleAttachment = new RolePolicyAttachment("dbMonitoringRoleAttachment",
+                    RolePolicyAttachmentArgs.builder()
+                            .role(dbMonitoringRole.name())
+                            .policyArn("arn:aws:iam::aws:policy/service-role/AmazonRDSEnhancedMonitoringRole")
+                            .build());
+            dbMonitoringRoleArn = dbMonitoringRole.arn();
+            // rds rejects the role until the managed policy is attached
+            dbInstanceDependencies.add(dbMonitoringRoleAttachment);
+        }
+        final Output<String> monitoringRoleArn = dbMonitoringRoleArn;
+
+        /*
+        create regional stacks
+         */
+        Output<String> primaryDbArn = Output.of("");
+        for (String region : regions) {
+            boolean primary = region.equals(primaryRegion);
+            // the primary region keeps the default provider and the original resource names,
+            // every other region gets an explicit provider and a region suffix
+            String suffix = primary ? "" : "-" + region;
+            Provider provider = primary ? null : new Provider("aws-" + region, ProviderArgs.builder()
+                    .region(region)
+                    .build());
+            var regionOptions = CustomResourceOptions.builder().provider(provider).build();
+            // cross region read replicas need the primary db arn, read before this iteration
+            // changes it
+            Output<String> replicaSourceDbArn = primaryDbArn;
+            boolean dbReplica = !primary && dbRegionStrategy.equals("replica");
+
+            // get regional config, amis, certificates and key pairs only exist in their own region
+            Optional<String> AMiId = config.get(primary ? "amiId" : "amiId-" + region);
+            Optional<String> certificateArnConfig =
+                    config.get(primary ? "certificateArn" : "certificateArn-" + region);
+            Optional<String> keyNameConfig = primary
+                    ? Optional.of(config.get("keyName").orElse("test"))
+                    : config.get("keyName-" + region);
+            // check config
+            if (AMiId.isEmpty() || certificateArnConfig.isEmpty() || keyNameConfig.isEmpty()) {
+                throw new RuntimeException("amiId, certificateArn and keyName must be configured for region " + region);
+            }
+            // get config value to string
+            String amiId = AMiId.get();
+            String certificateArn = certificateArnConfig.get();
+            String keyName = keyNameConfig.get();
+
+            /*
+            create vpc
+             */
+            var main = new Vpc(vpcName + suffix, VpcArgs.builder()
+                    .cidrBlock(cidrBlock)
+                    .tags(Map.of(vpcTagName, vpcName))
+                    .build(), regionOptions);
+
+            /*
+            create internet gateway
+             */
+            var gw = new InternetGateway(igwName + suffix, InternetGatewayArgs.builder()
+                    .vpcId(main.id())
+                    .tags(Map.of(igwTagName, igwName))
+                    .build(), regionOptions);
+
+            /*
+            create route table
+             */
+            var publicRouteTable = new RouteTable(publicRtValue + suffix, RouteTableArgs.builder()
+                    .vpcId(main.id())
+                    .routes(Collections.singletonList(
+                            RouteTableRouteArgs.builder()
+                                    .gatewayId(gw.id())
+                                    .cidrBlock("0.0.0.0/0")
+                                    .build()
+                    ))
+                    .tags(Map.of(routeTableTagName, publicRtValue))
+                    .build(), regionOptions);
+            var privateRouteTable = new RouteTable(privateRtValue + suffix, RouteTableArgs.builder()
+                    .vpcId(main.id())
+                    .tags(Map.of(routeTableTagName, privateRtValue))
+                    .build(), regionOptions);
+
+            // get availability zone in region
+            final var azs = AwsFunctions.getAvailabilityZones(
+                    GetAvailabilityZonesArgs.builder().build(),
+                    new InvokeOptions(null, provider, null));
+
+            // set azs to list
+            Output<String> regionDbArn = azs.apply(availabilityZones -> {
+                List<String> zoneNames = availabilityZones.names();
+                if (zoneNames != null) {
+                    // Print each AZ in the region to the console.
+                    zoneNames.forEach(zoneName -> System.out.println("Availability Zone: " + zoneName));
+                } else {
+                    System.out.println("No availability zones.");
                 }
-                // get config value to string
-                String dbSgTagNameValue = dbSecurityGroupTagNameValue.get();
-                // create a security group
-                var dbSecurityGroup =
-                    new SecurityGroup(
-                        dbSgTagNameValue,
-                        SecurityGroupArgs.builder()
+
+                assert zoneNames != null;
+                int zoneCount = zoneNames.size();
+
+                int zonesToUse = Math.min(zoneCount, 3);
+
+                List<Subnet> publicSubnets = new ArrayList<>();
+                List<Subnet> privateSubnets = new ArrayList<>();
+
+                // get base ip
+                String[] parts = cidrBlock.split("\\.");
+                String baseIp = parts[0] + "." + parts[1] + ".";
+
+                /*
+                create subnet
+                 */
+                for (int i = 0; i < zonesToUse; i++) {
+
+                    String subnetCidrBlockPublic = baseIp + (i * 2) + ".0/24";
+                    String subnetCidrBlockPrivate = baseIp + (i * 2 + 1) + ".0/24";
+
+                    var publicSubnet = new Subnet(publicSubnetTagName + i + suffix, SubnetArgs.builder()
                             .vpcId(main.id())
-                            .description("Security group for database")
-                            .ingress(
-                                Arrays.asList(
-                                    SecurityGroupIngressArgs.builder()
-                                        .description("MariaDB")
+                            .cidrBlock(subnetCidrBlockPublic)
+                            .availabilityZone(zoneNames.get(i))
+                            .tags(Map.of(subnetTagName, publicSubnetTagName + i))
+                            .build(), regionOptions);
+
+                    var privateSubnet = new Subnet(privateSubnetTagName + i + suffix, SubnetArgs.builder()
+                            .vpcId(main.id())
+                            .cidrBlock(subnetCidrBlockPrivate)
+                            .availabilityZone(zoneNames.get(i))
+                            .tags(Map.of(subnetTagName, privateSubnetTagName + i))
+                            .build(), regionOptions);
+
+                    publicSubnets.add(publicSubnet);
+                    privateSubnets.add(privateSubnet);
+                }
+
+                // create public route table association
+                for (int i = 0; i < publicSubnets.size(); i++) {
+                    var publicSubnetAssociation = new RouteTableAssociation(
+                            "publicSubnetAssociation" + i + suffix,
+                            RouteTableAssociationArgs.builder()
+                                    .subnetId(publicSubnets.get(i).id())
+                                    .routeTableId(publicRouteTable.id())
+                                    .build(), regionOptions);
+                }
+                // create private route table association
+                for (int i = 0; i < privateSubnets.size(); i++) {
+                    var privateSubnetAssociation = new RouteTableAssociation(
+                            "privateSubnetAssociation" + i + suffix,
+                            RouteTableAssociationArgs.builder()
+                                    .subnetId(privateSubnets.get(i).id())
+                                    .routeTableId(privateRouteTable.id())
+                                    .build(), regionOptions);
+                }
+
+                var privateSubnetIds = Output.all(privateSubnets.stream().map(Subnet::id).collect(Collectors.toList()));
+                var publicSubnetIds = Output.all(publicSubnets.stream().map(Subnet::id).collect(Collectors.toList()));
+
+                /*
+                create security group
+                 */
+                var loadBalancerSecurityGroup = new SecurityGroup("loadBalancerSecurityGroup" + suffix, SecurityGroupArgs.builder()
+                        .vpcId(main.id())
+                        .description("Security group for load balancer")
+                        .ingress(Collections.singletonList(
+                                SecurityGroupIngressArgs.builder()
+                                        .description("HTTPS")
+                                        .fromPort(443)
+                                        .toPort(443)
+                                        .protocol("tcp")
+                                        .cidrBlocks("0.0.0.0/0")
+                                        .build()))
+                        .egress(SecurityGroupEgressArgs.builder()
+                                .fromPort(0)
+                                .toPort(0)
+                                .protocol("-1")
+                                .cidrBlocks("0.0.0.0/0")
+                                .ipv6CidrBlocks("::/0")
+                                .build())
+                        .tags(Map.of("name", "loadBalancerSecurityGroup"))
+                        .build(), regionOptions);
+
+                var appSecurityGroup = new SecurityGroup(sgTagNameValue + suffix, SecurityGroupArgs.builder()
+                        .vpcId(main.id())
+                        .description("Security group for web application")
+                        .ingress(Arrays.asList(
+                                SecurityGroupIngressArgs.builder()
+                                        .description("SSH")
+                                        .fromPort(22)
+                                        .toPort(22)
+                                        .protocol("tcp")
+                                        .cidrBlocks("0.0.0.0/0")
+                                        .build(),
+                                SecurityGroupIngressArgs.builder()
+                                        .description("webapp")
+                                        .fromPort(8080) // replace with your application port
+                                        .toPort(8080) // replace with your application port
+                                        .protocol("tcp")
+                                        .securityGroups(loadBalancerSecurityGroup.id().applyValue(List::of))
+                                        .build()))
+                        .egress(SecurityGroupEgressArgs.builder()
+                                .fromPort(0)
+                                .toPort(0)
+                                .protocol("-1")
+                                .cidrBlocks("0.0.0.0/0")
+                                .ipv6CidrBlocks("::/0")
+                                .build())
+                        .tags(Map.of(sgTagName, sgTagNameValue))
+                        .build(), regionOptions);
+
+                // create a database security group
+                var dbSecurityGroup = new SecurityGroup(dbSgTagNameValue + suffix, SecurityGroupArgs.builder()
+                        .vpcId(main.id())
+                        .description("Security group for database")
+                        .ingress(Arrays.asList(
+                                SecurityGroupIngressArgs.builder()
+                                        .description(isAurora ? "Aurora MySQL" : "MariaDB")
                                         .fromPort(3306)
                                         .toPort(3306)
                                         .protocol("tcp")
                                         .securityGroups(appSecurityGroup.id().applyValue(List::of))
                                         .build()))
+                        .build(), regionOptions);
+                var SecurityGroupRule = new SecurityGroupRule("dbSecurityGroupRule" + suffix, SecurityGroupRuleArgs.builder()
+                        .type("egress")
+                        .fromPort(3306)
+                        .toPort(3306)
+                        .protocol("tcp")
+                        .securityGroupId(appSecurityGroup.id())
+                        .sourceSecurityGroupId(dbSecurityGroup.id())
+                        .build(), regionOptions);
+
+                /*
+                create database
+                 */
+                // create a private subnet group
+                var dbPrivateSubnetGroup = new SubnetGroup("db_private_subnet_group" + suffix, SubnetGroupArgs.builder()
+                        .subnetIds(privateSubnetIds.applyValue(ids -> ids))
+                        .build(), regionOptions);
+
+                var dbOptions = CustomResourceOptions.builder()
+                        .provider(provider)
+                        .dependsOn(dbInstanceDependencies)
+                        .build();
+
+                Output<String> dbAddress;
+                Output<String> dbArn;
+                if (isAurora) {
+                    // get aurora config
+                    String dbAuroraEngineVersion = config.get("dbAuroraEngineVersion").orElse("8.0.mysql_aurora.3.04.0");
+                    String dbAuroraParameterGroupFamily = config.get("dbAuroraParameterGroupFamily").orElse("aurora-mysql8.0");
+                    double dbAuroraMinCapacity = config.getDouble("dbAuroraMinCapacity").orElse(0.5);
+                    double dbAuroraMaxCapacity = config.getDouble("dbAuroraMaxCapacity").orElse(2.0);
+                    int dbAuroraReaderCount = config.getInteger("dbAuroraReaderCount").orElse(0);
+                    // check config
+                    if (dbAuroraMinCapacity < 0.5 || dbAuroraMaxCapacity < dbAuroraMinCapacity || dbAuroraReaderCount < 0) {
+                        throw new RuntimeException(
+                                "dbAuroraMinCapacity must be at least 0.5, dbAuroraMaxCapacity must not be below it and dbAuroraReaderCount must not be negative");
+                    }
+
+                    // aurora sizes max_connections and the buffer pool from the ACU range, so only the
+                    // logging parameters are set at cluster level
+                    var dbClusterParameterGroup = new ClusterParameterGroup(dbParameterGroupNameValue + suffix,
+                            ClusterParameterGroupArgs.builder()
+                                    .family(dbAuroraParameterGroupFamily)
+                                    .description("Cluster parameter group for Aurora MySQL")
+                                    .parameters(dbSlowQueryLogParameters.entrySet().stream()
+                                            .map(parameter -> new ClusterParameterGroupParameterArgs.Builder()
+                                                    .name(parameter.getKey())
+                                                    .value(parameter.getValue())
+                                                    .applyMethod("immediate")
+                                                    .build())
+                                            .collect(Collectors.toList()))
+                                    .build(), regionOptions);
+
+                    // create an aurora mysql serverless v2 cluster
+                    var dbClusterArgs = ClusterArgs.builder()
+                            .engine("aurora-mysql")
+                            .engineMode("provisioned")
+                            .engineVersion(dbAuroraEngineVersion)
+                            .databaseName(dbInstanceNameString)
+                            .masterUsername(dbMasterUsernameString)
+                            .masterPassword(dbMasterPasswordString)
+                            .dbSubnetGroupName(dbPrivateSubnetGroup.name())
+                            .vpcSecurityGroupIds(dbSecurityGroup.id().applyValue(List::of))
+                            .dbClusterParameterGroupName(dbClusterParameterGroup.name())
+                            .serverlessv2ScalingConfiguration(ClusterServerlessv2ScalingConfigurationArgs.builder()
+                                    .minCapacity(dbAuroraMinCapacity)
+                                    .maxCapacity(dbAuroraMaxCapacity)
+                                    .build())
+                            .skipFinalSnapshot(!dbFinalSnapshot)
+                            .tags(Map.of(dbTagNameKeyString, dbTagNameValueString));
+                    if (dbFinalSnapshot) {
+                        dbClusterArgs.finalSnapshotIdentifier(dbInstanceNameString + "-" + dbEngine + "-final" + suffix);
+                    }
+
+                    // export slow query and error log to cloudwatch logs
+                    if (dbSlowQueryLogEnabled) {
+                        dbClusterArgs.enabledCloudwatchLogsExports(List.of("error", "slowquery"));
+                    }
+
+                    var dbCluster = new Cluster(dbInstanceNameString + suffix, dbClusterArgs.build(), regionOptions);
+
+                    // the first instance becomes the writer, the rest are readers that aurora promotes in
+                    // order on failover
+                    for (int i = 0; i <= dbAuroraReaderCount; i++) {
+                        var dbClusterInstanceArgs = ClusterInstanceArgs.builder()
+                                .clusterIdentifier(dbCluster.id())
+                                .instanceClass("db.serverless")
+                                .engine(dbCluster.engine())
+                                .engineVersion(dbCluster.engineVersion())
+                                .dbSubnetGroupName(dbPrivateSubnetGroup.name())
+                                .publiclyAccessible(false)
+                                .promotionTier(i)
+                                .tags(Map.of(dbTagNameKeyString, dbTagNameValueString + "-" + i));
+
+                        // performance insights
+                        if (dbPerformanceInsightsEnabled) {
+                            dbClusterInstanceArgs
+                                    .performanceInsightsEnabled(true)
+                                    .performanceInsightsRetentionPeriod(dbPerformanceInsightsRetention);
+                        }
+                        // enhanced monitoring
+                        if (monitoringRoleArn != null) {
+                            dbClusterInstanceArgs
+                                    .monitoringInterval(dbMonitoringInterval)
+                                    .monitoringRoleArn(monitoringRoleArn);
+                        }
+
+                        var dbClusterInstance = new ClusterInstance(dbInstanceNameString + "-" + i + suffix,
+                                dbClusterInstanceArgs.build(), dbOptions);
+                    }
+
+                    // the cluster endpoint always points at the current writer
+                    dbAddress = dbCluster.endpoint();
+                    dbArn = dbCluster.arn();
+                } else {
+                    boolean dbMultiAz = config.getBoolean("dbMultiAz").orElse(false);
+                    int dbMaxConnections = config.getInteger("dbMaxConnections").orElse(100);
+                    // check config
+                    if (dbMaxConnections < 10) {
+                        throw new RuntimeException("dbMaxConnections must be at least 10");
+                    }
+
+                    List<ParameterGroupParameterArgs> dbParameters = new ArrayList<>(Arrays.asList(
+                            new ParameterGroupParameterArgs.Builder()
+                                    .name("max_connections")
+                                    .value(String.valueOf(dbMaxConnections))
+                                    .applyMethod("immediate")
+                                    .build(),
+                            new ParameterGroupParameterArgs.Builder()
+                                    .name("query_cache_size")
+                                    .value("67108864") // 64MB in bytes
+                                    .applyMethod("immediate")
+                                    .build(),
+                            new ParameterGroupParameterArgs.Builder()
+                                    .name("innodb_buffer_pool_size")
+                                    .value("134217728") // 128MB in bytes
+                                    .applyMethod("immediate")
+                                    .build()));
+                    dbSlowQueryLogParameters.forEach((name, value) -> dbParameters.add(
+                            new ParameterGroupParameterArgs.Builder()
+                                    .name(name)
+                                    .value(value)
+                                    .applyMethod("immediate")
+                                    .build()));
+                    // create a parameter group
+                    var dbParameterGroup = new ParameterGroup(dbParameterGroupNameValue + suffix, ParameterGroupArgs.builder()
+                            .family(dbParameterGroupFamilyValue)
+                            .description("Parameter group for MariaDB")
+                            .parameters(dbParameters)
+                            .build(), regionOptions);
+
+                    var dbInstanceArgs = com.pulumi.aws.rds.InstanceArgs.builder()
+                            .instanceClass(dbInstanceClassString)
+                            .dbSubnetGroupName(dbPrivateSubnetGroup.name())
+                            .vpcSecurityGroupIds(dbSecurityGroup.id().applyValue(List::of))
+                            .parameterGroupName(dbParameterGroup.name())
+                            // rds takes no final snapshot of a read replica
+                            .skipFinalSnapshot(dbReplica || !dbFinalSnapshot)
+                            .publiclyAccessible(false)
+                            .multiAz(dbMultiAz)
+                            .tags(Map.of(dbTagNameKeyString, dbTagNameValueString));
+                    if (dbReplica) {
+                        // create a cross region read replica, engine, storage and credentials come from
+                        // the primary
+                        dbInstanceArgs.replicateSourceDb(replicaSourceDbArn);
+                    } else {
+                        // create a mariaDB instance
+                        if (dbFinalSnapshot) {
+                            dbInstanceArgs.finalSnapshotIdentifier(dbInstanceNameString + "-" + dbEngine + "-final" + suffix);
+                        }
+                        dbInstanceArgs
+                                .engine("mariadb")
+                                .engineVersion("10.4.31")
+                                .allocatedStorage(20)
+                                .username(dbMasterUsernameString)
+                                .password(dbMasterPasswordString)
+                                .dbName(dbInstanceNameString);
+                    }
+
+                    // performance insights
+                    if (dbPerformanceInsightsEnabled) {
+                        dbInstanceArgs
+                                .performanceInsightsEnabled(true)
+                                .performanceInsightsRetentionPeriod(dbPerformanceInsightsRetention);
+                    }
+                    // enhanced monitoring
+                    if (monitoringRoleArn != null) {
+                        dbInstanceArgs
+                                .monitoringInterval(dbMonitoringInterval)
+                                .monitoringRoleArn(monitoringRoleArn);
+                    }
+                    // export slow query and error log to cloudwatch logs
+                    if (dbSlowQueryLogEnabled) {
+                        dbInstanceArgs.enabledCloudwatchLogsExports(List.of("error", "slowquery"));
+                    }
+
+                    var dbInstance = new com.pulumi.aws.rds.Instance(dbInstanceNameString + suffix,
+                            dbInstanceArgs.build(), dbOptions);
+
+                    // in replica mode the webapp of a secondary region only starts against its local replica,
+                    // it gets no traffic until the replica is promoted
+                    dbAddress = dbInstance.address();
+                    dbArn = dbInstance.arn();
+                }
+
+                /*
+                create log groups, the agent and the lambda only write to groups the stack created
+                 */
+                // get log config
+                String appLogGroupName = config.get("appLogGroupName").orElse("csye6225-webapp");
+                int logRetentionDays = config.getInteger("logRetentionDays").orElse(14);
+                int logForceFlushInterval = config.getInteger("logForceFlushInterval").orElse(15);
+                String appLogMetricNamespace = config.get("appLogMetricNamespace").orElse("CSYE6225/Webapp");
+                String appLogLatencyField = config.get("appLogLatencyField").orElse("latencyMs");
+                String appLogLevelField = config.get("appLogLevelField").orElse("level");
+                // check config, cloudwatch only accepts these retention periods
+                if (!List.of(1, 3, 5, 7, 14, 30, 60, 90, 120, 150, 180, 365, 400, 545, 731, 1096, 1827, 2192, 2557,
+                        2922, 3288, 3653).contains(logRetentionDays)
+                        || logForceFlushInterval < 1) {
+                    throw new RuntimeException(
+                            "logRetentionDays must be a cloudwatch retention period and logForceFlushInterval must be positive");
+                }
+
+                var appLogGroup = new LogGroup("appLogGroup" + suffix, LogGroupArgs.builder()
+                        .name(appLogGroupName)
+                        .retentionInDays(logRetentionDays)
+                        .build(), regionOptions);
+
+                // metrics from the json log lines of the webapp, a request line carries the latency field
+                var requestLatencyFilter = new LogMetricFilter("requestLatencyFilter" + suffix, LogMetricFilterArgs.builder()
+                        .name("csye6225-request-latency")
+                        .logGroupName(appLogGroup.name())
+                        .pattern("{ $." + appLogLatencyField + " = * }")
+                        .metricTransformation(LogMetricFilterMetricTransformationArgs.builder()
+                                .name("RequestLatency")
+                                .namespace(appLogMetricNamespace)
+                                .value("$." + appLogLatencyField)
+                                .unit("Milliseconds")
+                                .build())
+                        .build(), regionOptions);
+
+                var requestCountFilter = new LogMetricFilter("requestCountFilter" + suffix, LogMetricFilterArgs.builder()
+                        .name("csye6225-request-count")
+                        .logGroupName(appLogGroup.name())
+                        .pattern("{ $." + appLogLatencyField + " = * }")
+                        .metricTransformation(LogMetricFilterMetricTransformationArgs.builder()
+                                .name("RequestCount")
+                                .namespace(appLogMetricNamespace)
+                                .value("1")
+                                .defaultValue("0")
+                                .unit("Count")
+                                .build())
+                        .build(), regionOptions);
+
+                var errorCountFilter = new LogMetricFilter("errorCountFilter" + suffix, LogMetricFilterArgs.builder()
+                        .name("csye6225-error-count")
+                        .logGroupName(appLogGroup.name())
+                        .pattern("{ $." + appLogLevelField + " = \"ERROR\" }")
+                        .metricTransformation(LogMetricFilterMetricTransformationArgs.builder()
+                                .name("ErrorCount")
+                                .namespace(appLogMetricNamespace)
+                                .value("1")
+                                .defaultValue("0")
+                                .unit("Count")
+                                .build())
+                        .build(), regionOptions);
+
+                // complete agent config, it replaces the one baked into the ami so the log file is tailed once.
+                // A statsd listener takes the webapp metrics. The agent sends a batch per log stream at least
+                // every force_flush_interval seconds, a longer interval means fewer and fuller PutLogEvents calls
+                String agentConfig = serializeJson(
+                        jsonObject(
+                                jsonProperty("metrics", jsonObject(
+                                        jsonProperty("metrics_collected", jsonObject(
+                                                jsonProperty("statsd", jsonObject(
+                                                        jsonProperty("service_address", ":8125"),
+                                                        jsonProperty("metrics_collection_interval", 15),
+                                                        jsonProperty("metrics_aggregation_interval", 300))))))),
+                                jsonProperty("logs", jsonObject(
+                                        jsonProperty("force_flush_interval", logForceFlushInterval),
+                                        jsonProperty("logs_collected", jsonObject(
+                                                jsonProperty("files", jsonObject(
+                                                        jsonProperty("collect_list", jsonArray(jsonObject(
+                                                                jsonProperty("file_path", "/var/log/csye6225.log"),
+                                                                jsonProperty("log_group_name", appLogGroupName),
+                                                                jsonProperty("log_stream_name", "{instance_id}"))))))))))));
+
+                /*
+                create user data
+                 */
+                // connection pool per instance, left at the hikari default unless configured
+                Optional<Integer> dbPoolSize = config.getInteger("dbPoolSize");
+                // rounds of requests every new instance sends to itself once the service is up, target group
+                // slow start covers the time until they are done, 0 turns it off
+                int warmupRequests = config.getInteger("warmupRequests").orElse(0);
+                List<String> warmupPaths = Arrays.stream(config.get("warmupPaths").orElse("/healthz").split(","))
+                        .map(String::trim)
+                        .collect(Collectors.toList());
+                // check config
+                if (warmupRequests < 0 || warmupPaths.stream().anyMatch(path -> !path.startsWith("/"))) {
+                    throw new RuntimeException("warmupRequests must not be negative and warmupPaths must start with /");
+                }
+                // a read replica rejects schema changes
+                String ddlAuto = dbReplica ? "none" : "update";
+                // logging every statement slows each request down, only turn it on to debug
+                boolean hibernateShowSql = config.getBoolean("hibernateShowSql").orElse(false);
+                Output<String> userData = Output.tuple(topic.urn(), dbAddress).applyValue(t -> {
+                    String urn = t.t1;
+                    String address = t.t2;
+
+                    // create UserData script, fetch-config replaces the whole agent config with the stack's
+                    String cloudWatchAgentSetup = String.join("\n",
+                            "cat > /opt/cloudwatch-agent-config.json <<'EOL'",
+                            agentConfig,
+                            "EOL",
+                            "sudo /opt/aws/amazon-cloudwatch-agent/bin/amazon-cloudwatch-agent-ctl \\\n"
+                                    + "    -a fetch-config \\\n"
+                                    + "    -m ec2 \\\n"
+                                    + "    -c file:/opt/cloudwatch-agent-config.json \\\n"
+                                    + "    -s");
+
+                    // join urn to userdata
+                    String userDataWithTopic = String.join("\n", "TopicInfo=" + urn);
+
+                    String datasourcePool = dbPoolSize
+                            .map(size -> String.join("\n",
+                                    "",
+                                    "    hikari:",
+                                    "      maximum-pool-size: " + size,
+                                    "      minimum-idle: " + size))
+                            .orElse("");
+
+                    // wait for the service, then run the hot paths through the jit before real traffic arrives
+                    String jvmWarmup = warmupRequests == 0 ? "" : String.join("\n",
+                            "",
+                            "for i in $(seq 1 150); do curl -sf -o /dev/null http://localhost:8080/healthz && break; sleep 2; done",
+                            "for i in $(seq 1 " + warmupRequests + "); do",
+                            "  for path in " + String.join(" ", warmupPaths) + "; do",
+                            "    curl -s -o /dev/null http://localhost:8080$path",
+                            "  done",
+                            "done");
+
+                    return Base64.getEncoder().encodeToString(String.join("\n",
+                            "#!/bin/bash",
+                            "sudo groupadd csye6225",
+                            "sudo useradd -s /bin/false -g csye6225 -d /opt/csye6225 -m csye6225",
+                            "cat > /opt/csye6225/application-demo.yml <<EOL",
+                            "server:",
+                            "  port: 8080",
+                            "spring:",
+                            "  application:",
+                            "    name: csye6225",
+                            "  profiles:",
+                            "    active: demo",
+                            "  main:",
+                            "    allow-circular-references: true",
+                            "  datasource:",
+                            "    driver-class-name: org.mariadb.jdbc.Driver",
+                            "    url: jdbc:mariadb://" + address + ":3306/csye6225?createDatabaseIfNotExist=true",
+                            "    username: " + dbMasterUsernameString,
+                            "    password: " + dbMasterPasswordString + datasourcePool,
+                            "  jpa:",
+                            "    hibernate:",
+                            "      ddl-auto: " + ddlAuto,
+                            "    properties:",
+                            "      hibernate:",
+                            "        show_sql: " + hibernateShowSql,
+                            "        format_sql: " + hibernateShowSql,
+                            "        dialect: " + dbHibernateDialect,
+                            "    database-platform: " + dbHibernateDialect,
+                            "csv:",
+                            "  file:",
+                            "    # path: \"classpath:static/users.csv\"",
+                            "    path: \"file:/opt/csye6225/users.csv\"",
+                            "EOL",
+                            "sudo mv /opt/webapp.jar /opt/csye6225/webapp.jar",
+                            "sudo mv /opt/users.csv /opt/csye6225/users.csv",
+                            "sudo chown csye6225:csye6225 /opt/csye6225/webapp.jar",
+                            "sudo chown csye6225:csye6225 /opt/csye6225/users.csv",
+                            "sudo chown csye6225:csye6225 /opt/csye6225/application-demo.yml",
+                            "sudo touch /var/log/csye6225.log",
+                            "sudo chown csye6225:csye6225 /var/log/csye6225.log",
+                            "sudo chmod u+rw,g+rw /var/log/csye6225.log",
+                            "sudo systemctl enable /etc/systemd/system/csye6225.service",
+                            "sudo systemctl start csye6225.service",
+                            "sudo systemctl enable amazon-cloudwatch-agent",
+                            cloudWatchAgentSetup + jvmWarmup,
+                            userDataWithTopic).getBytes());
+                });
+
+                /*
+                create launch template and auto scaling group, in blue/green mode every color gets its own
+                launch template, auto scaling group and target group and the listener splits traffic by weight
+                 */
+                String instanceType = config.get("instanceType").orElse("t2.micro");
+
+                // get deployment config, blue keeps the names of the rolling mode resources so switching modes
+                // only adds the green side
+                String deploymentMode = config.get("deploymentMode").orElse("rolling");
+                int greenWeight = config.getInteger("greenWeight").orElse(0);
+                int targetSlowStart = config.getInteger("targetSlowStart").orElse(90);
+                // check config, slow start is 0 (off) or 30 to 900 seconds
+                if (!List.of("rolling", "bluegreen").contains(deploymentMode)
+                        || greenWeight < 0
+                        || greenWeight > 100
+                        || (targetSlowStart != 0 && (targetSlowStart < 30 || targetSlowStart > 900))) {
+                    throw new RuntimeException(
+                            "deploymentMode must be rolling or bluegreen, greenWeight between 0 and 100 and targetSlowStart 0 or 30 to 900");
+                }
+                boolean blueGreen = deploymentMode.equals("bluegreen");
+                List<String> colors = blueGreen ? List.of("blue", "green") : List.of("blue");
+                Map<String, Integer> colorWeights = Map.of("blue", 100 - greenWeight, "green", greenWeight);
+
+                // get auto scaling group config, by default keep one instance in every public subnet's zone
+                int asgMinSize = config.getInteger("asgMinSize").orElse(publicSubnets.size());
+                int asgMaxSize = config.getInteger("asgMaxSize").orElse(Math.max(3, publicSubnets.size() * 2));
+                int asgDesiredCapacity = config.getInteger("asgDesiredCapacity").orElse(asgMinSize);
+                // a color without traffic keeps this many warm instances for the next shift or a rollback
+                int idleColorSize = config.getInteger("idleColorSize").orElse(asgMinSize);
+                // check config
+                if (asgMinSize < 0 || asgDesiredCapacity < asgMinSize || asgMaxSize < asgDesiredCapacity
+                        || idleColorSize < 0 || idleColorSize > asgMaxSize) {
+                    throw new RuntimeException(
+                            "asgMinSize, asgDesiredCapacity and asgMaxSize must satisfy min <= desired <= max and idleColorSize must not exceed asgMaxSize");
+                }
+
+                // get instance refresh config
+                int asgRefreshMinHealthyPercentage = config.getInteger("asgRefreshMinHealthyPercentage").orElse(90);
+                int asgRefreshInstanceWarmup = config.getInteger("asgRefreshInstanceWarmup").orElse(300);
+                List<Integer> asgRefreshCheckpointPercentages = Arrays.stream(
+                                config.get("asgRefreshCheckpointPercentages").orElse("50,100").split(","))
+                        .map(String::trim)
+                        .map(Integer::valueOf)
+                        .collect(Collectors.toList());
+                int asgRefreshCheckpointDelay = config.getInteger("asgRefreshCheckpointDelay").orElse(300);
+                boolean asgRefreshSkipMatching = config.getBoolean("asgRefreshSkipMatching").orElse(true);
+                // check config, the last checkpoint has to be 100
+                if (asgRefreshMinHealthyPercentage < 0
+                        || asgRefreshMinHealthyPercentage > 100
+                        || asgRefreshCheckpointPercentages.isEmpty()
+                        || asgRefreshCheckpointPercentages.get(asgRefreshCheckpointPercentages.size() - 1) != 100) {
+                    throw new RuntimeException(
+                            "asgRefreshMinHealthyPercentage must be between 0 and 100 and asgRefreshCheckpointPercentages must end with 100");
+                }
+
+                // get scaling config
+                double scaleUpCpuThreshold = config.getDouble("scaleUpCpuThreshold").orElse(5.0);
+                double scaleDownCpuThreshold = config.getDouble("scaleDownCpuThreshold").orElse(3.0);
+                int scalingAlarmPeriod = config.getInteger("scalingAlarmPeriod").orElse(60);
+                int scalingCooldown = config.getInteger("scalingCooldown").orElse(60);
+                // check config, cloudwatch periods are 10, 30 or a multiple of 60 seconds
+                if (scaleDownCpuThreshold >= scaleUpCpuThreshold
+                        || !(scalingAlarmPeriod == 10 || scalingAlarmPeriod == 30 || scalingAlarmPeriod % 60 == 0)
+                        || scalingCooldown < 0) {
+                    throw new RuntimeException(
+                            "scaleDownCpuThreshold must be below scaleUpCpuThreshold and scalingAlarmPeriod must be 10, 30 or a multiple of 60");
+                }
+
+                Map<String, TargetGroup> targetGroups = new LinkedHashMap<>();
+                List<Output<String>> scaleUpPolicyArns = new ArrayList<>();
+                for (String color : colors) {
+                    String colorSuffix = color.equals("blue") ? "" : "-" + color;
+                    // a color can run its own ami and instance type, e.g. the next release on green
+                    String colorAmiId = blueGreen
+                            ? config.get(primary ? color + "AmiId" : color + "AmiId-" + region).orElse(amiId)
+                            : amiId;
+                    String colorInstanceType = blueGreen
+                            ? config.get(color + "InstanceType").orElse(instanceType)
+                            : instanceType;
+                    boolean idle = blueGreen && colorWeights.get(color) == 0;
+
+                    // create launch template used to create auto scaling groups.
+                    var launchTemplate = new LaunchTemplate("webappLaunchTemplate" + colorSuffix + suffix, LaunchTemplateArgs.builder()
+                            .namePrefix("webapp")
+                            .imageId(colorAmiId)
+                            .instanceType(colorInstanceType)
+                            .iamInstanceProfile(LaunchTemplateIamInstanceProfileArgs.builder()
+                                    .arn(instanceProfile.arn())
+                                    .build())
+                            .networkInterfaces(LaunchTemplateNetworkInterfaceArgs.builder()
+                                    .associatePublicIpAddress(String.valueOf(true))
+                                    .securityGroups(appSecurityGroup.id().applyValue(List::of))
+                                    // no subnet here, the asg places each instance in one of its vpcZoneIdentifiers
+                                    .build())
+                            .keyName(keyName)
+                            .userData(userData)
+                            .disableApiTermination(false)
+                            .instanceInitiatedShutdownBehavior("terminate")
+                            .blockDeviceMappings(LaunchTemplateBlockDeviceMappingArgs.builder()
+                                    .deviceName("/dev/xvda")
+                                    .ebs(LaunchTemplateBlockDeviceMappingEbsArgs.builder()
+                                            .volumeSize(25)
+                                            .volumeType("gp2")
+                                            .deleteOnTermination(String.valueOf(true))
+                                            .build())
+                                    .build())
+                            .tagSpecifications(LaunchTemplateTagSpecificationArgs.builder()
+                                    .resourceType("instance")
+                                    .tags(Map.of("Name", "webapp" + colorSuffix))
+                                    .build())
+                            .build(), regionOptions);
+
+                    // create a target group, slow start ramps the share of a new target up while its jvm warms
+                    var targetGroup = new TargetGroup("appTargetGroup" + colorSuffix + suffix, TargetGroupArgs.builder()
+                            .port(8080)
+                            .protocol("HTTP")
+                            .targetType("instance")
+                            .vpcId(main.id())
+                            .slowStart(targetSlowStart)
+                            .healthCheck(TargetGroupHealthCheckArgs.builder()
+                                    .path("/healthz")
+                                    .port("8080")
+                                    .protocol("HTTP")
+                                    .build())
+                            .build(), regionOptions);
+                    targetGroups.put(color, targetGroup);
+
+                    // create auto scaling group
+                    var appAutoScalingGroupArgs = GroupArgs.builder()
+                            .vpcZoneIdentifiers(publicSubnetIds.applyValue(ids -> ids))
+                            .healthCheckGracePeriod(300)
+                            // replace instances the load balancer marks unhealthy, not just failed ec2 status checks
+                            .healthCheckType("ELB")
+                            .desiredCapacity(idle ? idleColorSize : asgDesiredCapacity)
+                            .maxSize(asgMaxSize)
+                            .minSize(idle ? Math.min(idleColorSize, asgMinSize) : asgMinSize)
+                            .capacityRebalance(true)
+                            .launchTemplate(GroupLaunchTemplateArgs.builder()
+                                    .id(launchTemplate.id())
+                                    // pin the concrete version so a new template version changes the group and
+                                    // starts a refresh
+                                    .version(launchTemplate.latestVersion().applyValue(String::valueOf))
+                                    .build())
+                            .tags(GroupTagArgs.builder()
+                                    .key("Name")
+                                    .value("csye6225_asg" + colorSuffix)
+                                    .propagateAtLaunch(true)
+                                    .build())
+                            .defaultCooldown(60);
+                    // both colors share user data and the default ami, in blue/green mode only the idle color
+                    // refreshes so that such a change never rolls the color that takes traffic
+                    if (!blueGreen || idle) {
+                        appAutoScalingGroupArgs.instanceRefresh(GroupInstanceRefreshArgs.builder()
+                                .strategy("Rolling")
+                                .preferences(GroupInstanceRefreshPreferencesArgs.builder()
+                                        .minHealthyPercentage(asgRefreshMinHealthyPercentage)
+                                        .instanceWarmup(String.valueOf(asgRefreshInstanceWarmup))
+                                        .checkpointPercentages(asgRefreshCheckpointPercentages)
+                                        .checkpointDelay(String.valueOf(asgRefreshCheckpointDelay))
+                                        .skipMatching(asgRefreshSkipMatching)
+                                        .build())
+                                .build());
+                    }
+                    var appAutoScalingGroup = new Group("csye6225_asg" + colorSuffix + suffix,
+                            appAutoScalingGroupArgs.build(), CustomResourceOptions.builder()
+                            .provider(provider)
+                            // instances start shipping logs right away and cannot create the group themselves
+                            .dependsOn(appLogGroup)
                             .build());
-                var SecurityGroupRule =
-                    new SecurityGroupRule(
-                        "dbSecurityGroupRule",
-                        SecurityGroupRuleArgs.builder()
-                            .type("egress")
-                            .fromPort(3306)
-                            .toPort(3306)
-                            .protocol("tcp")
-                            .securityGroupId(appSecurityGroup.id())
-                            .sourceSecurityGroupId(dbSecurityGroup.id())
+
+                    // Attach the load balancer to the Auto Scaling group
+                    var attachment = new Attachment("asgAttachment" + colorSuffix + suffix, AttachmentArgs.builder()
+                            .lbTargetGroupArn(targetGroup.arn())
+                            .autoscalingGroupName(appAutoScalingGroup.name())
+                            .build(), regionOptions);
+
+                    // create auto scaling policy,Scale up policy when average CPU usage is above the threshold. Increment by 1
+                    var scaleUpPolicy = new Policy("scaleUpPolicy" + colorSuffix + suffix, PolicyArgs.builder()
+                            .name("scaleUpPolicy")
+                            .autoscalingGroupName(appAutoScalingGroup.name())
+                            .adjustmentType("ChangeInCapacity")
+                            .scalingAdjustment(1)
+                            .cooldown(scalingCooldown)
+                            .build(), regionOptions);
+                    scaleUpPolicyArns.add(scaleUpPolicy.arn());
+
+                    // create auto scaling policy,Scale down policy when average CPU usage is below the threshold. Decrement by 1
+                    var scaleDownPolicy = new Policy("scaleDownPolicy" + colorSuffix + suffix, PolicyArgs.builder()
+                            .name("scaleDownPolicy")
+                            .autoscalingGroupName(appAutoScalingGroup.name())
+                            .adjustmentType("ChangeInCapacity")
+                            .scalingAdjustment(-1)
+                            .cooldown(scalingCooldown)
+                            .build(), regionOptions);
+
+                    var asgDimensions = appAutoScalingGroup.name().applyValue(name -> Map.of("AutoScalingGroupName", name));
+
+                    // create a cloudwatch alarm, Scale up policy when average CPU usage is above the threshold. Increment by 1
+                    var scaleUpAlarm = new MetricAlarm("scaleUpAlarm" + colorSuffix + suffix, MetricAlarmArgs.builder()
+                            .name("scaleUpAlarm" + colorSuffix)
+                            .metricName("CPUUtilization")
+                            .alarmDescription("Scale up policy when average CPU usage is above " + scaleUpCpuThreshold + "%. Increment by 1")
+                            .comparisonOperator("GreaterThanOrEqualToThreshold")
+                            .insufficientDataActions()
+                            .evaluationPeriods(1)
+                            .namespace("AWS/EC2")
+                            .period(scalingAlarmPeriod)
+                            .statistic("Average")
+                            .threshold(scaleUpCpuThreshold)
+                            .alarmActions(scaleUpPolicy.arn().applyValue(List::of))
+                            .dimensions(asgDimensions)
+                            .build(), regionOptions);
+
+                    // create auto scaling policy,Scale down policy when average CPU usage is below the threshold. Decrement by 1
+                    var scaleDownAlarm = new MetricAlarm("scaleDownAlarm" + colorSuffix + suffix, MetricAlarmArgs.builder()
+                            .name("scaleDownAlarm" + colorSuffix)
+                            .metricName("CPUUtilization")
+                            .alarmDescription("Scale down policy when average CPU usage is below " + scaleDownCpuThreshold + "%. Decrement by 1")
+                            .comparisonOperator("LessThanOrEqualToThreshold")
+                            .insufficientDataActions()
+                            .evaluationPeriods(1)
+                            .namespace("AWS/EC2")
+                            .period(scalingAlarmPeriod)
+                            .statistic("Average")
+                            .threshold(scaleDownCpuThreshold)
+                            .alarmActions(scaleDownPolicy.arn().applyValue(List::of))
+                            .dimensions(asgDimensions)
+                            .build(), regionOptions);
+                }
+
+                // get latency scaling config
+                boolean latencyScaleUpEnabled = config.getBoolean("latencyScaleUpEnabled").orElse(false);
+                double latencyScaleUpThresholdMs = config.getDouble("latencyScaleUpThresholdMs").orElse(1000.0);
+
+                // create a cloudwatch alarm, Scale up when the p99 request latency from the logs is above the
+                // threshold, the log metric covers every color so every group scales
+                if (latencyScaleUpEnabled) {
+                    var latencyAlarm = new MetricAlarm("latencyScaleUpAlarm" + suffix, MetricAlarmArgs.builder()
+                            .name("latencyScaleUpAlarm")
+                            .metricName("RequestLatency")
+                            .alarmDescription("Scale up policy when p99 request latency is above "
+                                    + latencyScaleUpThresholdMs + " ms. Increment by 1")
+                            .comparisonOperator("GreaterThanOrEqualToThreshold")
+                            .evaluationPeriods(2)
+                            .namespace(appLogMetricNamespace)
+                            .period(scalingAlarmPeriod)
+                            .extendedStatistic("p99")
+                            .threshold(latencyScaleUpThresholdMs)
+                            // no requests is not a latency problem
+                            .treatMissingData("notBreaching")
+                            .alarmActions(Output.all(scaleUpPolicyArns))
+                            .build(), CustomResourceOptions.builder()
+                            .provider(provider)
+                            .dependsOn(requestLatencyFilter)
                             .build());
+                }
 
-                // create a parameter group
-                Optional<String> dbParameterGroupName = config.get("dbParameterGroupName");
-                Optional<String> dbParameterGroupFamily = config.get("dbParameterGroupFamily");
-                // check config
-                if (dbParameterGroupName.isEmpty() || dbParameterGroupFamily.isEmpty()) {
-                  throw new RuntimeException(
-                      "dbParameterGroupName and dbParameterGroupFamily must be configured");
+                /*
+                create load balancer
+                 */
+                // get access log config
+                boolean albAccessLogsEnabled = config.getBoolean("albAccessLogsEnabled").orElse(false);
+                String albAccessLogsPrefix = config.get("albAccessLogsPrefix").orElse("alb");
+                int albAccessLogsRetentionDays = config.getInteger("albAccessLogsRetentionDays").orElse(30);
+                // check config, the load balancer appends /AWSLogs/<account id>/... to the prefix itself
+                if (albAccessLogsRetentionDays < 1
+                        || albAccessLogsPrefix.isEmpty()
+                        || albAccessLogsPrefix.startsWith("/")
+                        || albAccessLogsPrefix.endsWith("/")
+                        || albAccessLogsPrefix.contains("AWSLogs")) {
+                    throw new RuntimeException(
+                            "albAccessLogsRetentionDays must be positive and albAccessLogsPrefix must be a non-empty prefix without leading or trailing / or AWSLogs");
                 }
-                // get config value to string
-                String dbParameterGroupNameValue = dbParameterGroupName.get();
-                String dbParameterGroupFamilyValue = dbParameterGroupFamily.get();
-                // create a parameter group
-                var dbParameterGroup =
-                    new ParameterGroup(
-                        dbParameterGroupNameValue,
-                        ParameterGroupArgs.builder()
-                            .family(dbParameterGroupFamilyValue)
-                            .description("Parameter group for MariaDB")
-                            .parameters(
-                                Arrays.asList(
-                                    new ParameterGroupParameterArgs.Builder()
-                                        .name("max_connections")
-                                        .value("100")
-                                        .applyMethod("immediate")
-                                        .build(),
-                                    new ParameterGroupParameterArgs.Builder()
-                                        .name("query_cache_size")
-                                        .value("67108864") // 64MB in bytes
-                                        .applyMethod("immediate")
-                                        .build(),
-                                    new ParameterGroupParameterArgs.Builder()
-                                        .name("innodb_buffer_pool_size")
-                                        .value("134217728") // 128MB in bytes
-                                        .applyMethod("immediate")
-                                        .build()))
+
+                var loadBalancerArgs = LoadBalancerArgs.builder()
+                        .internal(false)
+                        .loadBalancerType("application")
+                        .securityGroups(loadBalancerSecurityGroup.id().applyValue(List::of))
+                        .subnets(publicSubnetIds.applyValue(ids -> ids));
+                var loadBalancerOptions = regionOptions;
+
+                if (albAccessLogsEnabled) {
+                    // create a bucket for the access logs, old logs expire
+                    var accessLogsBucket = new Bucket("albAccessLogs" + suffix, BucketArgs.builder()
+                            .bucketPrefix("csye6225-alb-logs-")
+                            .forceDestroy(true)
+                            .lifecycleRules(BucketLifecycleRuleArgs.builder()
+                                    .enabled(true)
+                                    .expiration(BucketLifecycleRuleExpirationArgs.builder()
+                                            .days(albAccessLogsRetentionDays)
+                                            .build())
+                                    .build())
+                            .build(), regionOptions);
+
+                    // the load balancer writes as the elb account of its region
+                    var elbServiceAccount = ElbFunctions.getServiceAccount(GetServiceAccountArgs.builder().build(),
+                            new InvokeOptions(null, provider, null));
+                    var callerIdentity = AwsFunctions.getCallerIdentity(GetCallerIdentityArgs.builder().build(),
+                            new InvokeOptions(null, provider, null));
+
+                    var accessLogsPolicy = new BucketPolicy("albAccessLogsPolicy" + suffix, BucketPolicyArgs.builder()
+                            .bucket(accessLogsBucket.id())
+                            .policy(Output.tuple(accessLogsBucket.arn(), elbServiceAccount, callerIdentity)
+                                    .applyValue(t -> serializeJson(
+                                            jsonObject(
+                                                    jsonProperty("Version", "2012-10-17"),
+                                                    jsonProperty("Statement", jsonArray(jsonObject(
+                                                            jsonProperty("Effect", "Allow"),
+                                                            jsonProperty("Principal", jsonObject(
+                                                                    jsonProperty("AWS", t.t2.arn()))),
+                                                            jsonProperty("Action", "s3:PutObject"),
+                                                            jsonProperty("Resource", t.t1 + "/" + albAccessLogsPrefix
+                                                                    + "/AWSLogs/" + t.t3.accountId() + "/*"))))))))
+                            .build(), regionOptions);
+
+                    loadBalancerArgs.accessLogs(LoadBalancerAccessLogsArgs.builder()
+                            .bucket(accessLogsBucket.id())
+                            .prefix(albAccessLogsPrefix)
+                            .enabled(true)
                             .build());
-                // create a mariaDB instance
-                Optional<String> dbTagNameKey = config.get("dbTagNameKey");
-                Optional<String> dbTagNameValue = config.get("dbTagNameValue");
-                Optional<String> dbInstanceName = config.get("dbInstanceName");
-                Optional<String> dbInstanceClass = config.get("dbInstanceClass");
-                Optional<String> dbMasterUsername = config.get("dbMasterUsername");
-                Optional<String> dbMasterPassword = config.get("dbMasterPassword");
-                // check config
-                if (dbTagNameKey.isEmpty()
-                    || dbTagNameValue.isEmpty()
-                    || dbInstanceName.isEmpty()
-                    || dbInstanceClass.isEmpty()
-                    || dbMasterUsername.isEmpty()
-                    || dbMasterPassword.isEmpty()) {
-                  throw new RuntimeException(
-                      "dbTagNameKey, dbTagNameValue, dbInstanceName, dbInstanceClass, dbMasterUsername and dbMasterPassword must be configured");
+                    // the load balancer checks that it can write to the bucket when logging is turned on
+                    loadBalancerOptions = CustomResourceOptions.builder()
+                            .provider(provider)
+                            .dependsOn(accessLogsPolicy)
+                            .build();
+
+                    // logs land in <prefix>/AWSLogs/<account id>/elasticloadbalancing/<region>/yyyy/MM/dd/
+                    Output<String> accessLogsLocation = Output.tuple(accessLogsBucket.id(), callerIdentity)
+                            .applyValue(t -> "s3://" + t.t1 + "/" + albAccessLogsPrefix + "/AWSLogs/"
+                                    + t.t2.accountId() + "/elasticloadbalancing/" + region + "/");
+
+                    // create a glue table over the logs, partition projection derives the day partitions
+                    // from the path so no crawler or MSCK REPAIR is needed
+                    var accessLogsDatabase = new CatalogDatabase("albAccessLogsDatabase" + suffix, CatalogDatabaseArgs.builder()
+                            .name("csye6225_alb_logs")
+                            .build(), regionOptions);
+
+                    List<CatalogTableStorageDescriptorColumnArgs> accessLogColumns = Arrays.stream(new String[]{
+                                    "type string", "time string", "elb string", "client_ip string", "client_port int",
+                                    "target_ip string", "target_port int", "request_processing_time double",
+                                    "target_processing_time double", "response_processing_time double",
+                                    "elb_status_code int", "target_status_code string", "received_bytes bigint",
+                                    "sent_bytes bigint", "request_verb string", "request_url string",
+                                    "request_proto string", "user_agent string", "ssl_cipher string",
+                                    "ssl_protocol string", "target_group_arn string", "trace_id string",
+                                    "domain_name string", "chosen_cert_arn string", "matched_rule_priority string",
+                                    "request_creation_time string", "actions_executed string", "redirect_url string",
+                                    "lambda_error_reason string", "target_port_list string",
+                                    "target_status_code_list string", "classification string",
+                                    "classification_reason string"})
+                            .map(column -> column.split(" "))
+                            .map(column -> CatalogTableStorageDescriptorColumnArgs.builder()
+                                    .name(column[0])
+                                    .type(column[1])
+                                    .build())
+                            .collect(Collectors.toList());
+
+                    // one group per column, newer fields appended by aws are ignored
+                    String accessLogRegex = "([^ ]*) ([^ ]*) ([^ ]*) ([^ ]*):([0-9]*) ([^ ]*)[:-]([0-9]*) "
+                            + "([-.0-9]*) ([-.0-9]*) ([-.0-9]*) (|[-0-9]*) (-|[-0-9]*) ([-0-9]*) "
+                            + "([-0-9]*) \"([^ ]*) (.*) (- |[^ ]*)\" \"([^\"]*)\" ([A-Z0-9-_]+) "
+                            + "([A-Za-z0-9.-]*) ([^ ]*) \"([^\"]*)\" \"([^\"]*)\" \"([^\"]*)\" "
+                            + "([-.0-9]*) ([^ ]*) \"([^\"]*)\" \"([^\"]*)\" \"([^ ]*)\" "
+                            + "\"([^\\s]+?)\" \"([^\\s]+)\" \"([^ ]*)\" \"([^ ]*)\"(?: .*)?";
+
+                    var accessLogsTable = new CatalogTable("albAccessLogsTable" + suffix, CatalogTableArgs.builder()
+                            .databaseName(accessLogsDatabase.name())
+                            .name("alb_logs")
+                            .tableType("EXTERNAL_TABLE")
+                            .parameters(accessLogsLocation.applyValue(location -> Map.of(
+                                    "EXTERNAL", "TRUE",
+                                    "projection.enabled", "true",
+                                    "projection.day.type", "date",
+                                    "projection.day.range", "2024/01/01,NOW",
+                                    "projection.day.format", "yyyy/MM/dd",
+                                    "projection.day.interval", "1",
+                                    "projection.day.interval.unit", "DAYS",
+                                    "storage.location.template", location + "${day}")))
+                            .partitionKeys(CatalogTablePartitionKeyArgs.builder()
+                                    .name("day")
+                                    .type("string")
+                                    .build())
+                            .storageDescriptor(CatalogTableStorageDescriptorArgs.builder()
+                                    .location(accessLogsLocation)
+                                    .inputFormat("org.apache.hadoop.mapred.TextInputFormat")
+                                    .outputFormat("org.apache.hadoop.hive.ql.io.HiveIgnoreKeyTextOutputFormat")
+                                    .serDeInfo(CatalogTableStorageDescriptorSerDeInfoArgs.builder()
+                                            .serializationLibrary("org.apache.hadoop.hive.serde2.RegexSerDe")
+                                            .parameters(Map.of(
+                                                    "serialization.format", "1",
+                                                    "input.regex", accessLogRegex))
+                                            .build())
+                                    .columns(accessLogColumns)
+                                    .build())
+                            .build(), regionOptions);
+
+                    // athena writes query results next to the logs, they expire with them
+                    var accessLogsWorkgroup = new Workgroup("albAccessLogsWorkgroup" + suffix, WorkgroupArgs.builder()
+                            .name("csye6225-alb-logs")
+                            .forceDestroy(true)
+                            .configuration(WorkgroupConfigurationArgs.builder()
+                                    .resultConfiguration(WorkgroupConfigurationResultConfigurationArgs.builder()
+                                            .outputLocation(accessLogsBucket.id().applyValue(bucket ->
+                                                    "s3://" + bucket + "/athena-results/"))
+                                            .build())
+                                    .build())
+                            .build(), regionOptions);
+
+                    // saved latency queries, target_processing_time is -1 when no target answered
+                    var latencyByPathQuery = new NamedQuery("albLatencyByPath" + suffix, NamedQueryArgs.builder()
+                            .name("alb-latency-by-path")
+                            .description("p50 and p99 target latency per path over the last day")
+                            .database(accessLogsDatabase.name())
+                            .workgroup(accessLogsWorkgroup.name())
+                            .query(accessLogsTable.name().applyValue(table -> String.join("\n",
+                                    "SELECT url_extract_path(request_url) AS path,",
+                                    "       count(*) AS requests,",
+                                    "       approx_percentile(target_processing_time, 0.5) * 1000 AS p50_ms,",
+                                    "       approx_percentile(target_processing_time, 0.99) * 1000 AS p99_ms",
+                                    "FROM " + table,
+                                    "WHERE day >= date_format(current_date - interval '1' day, '%Y/%m/%d')",
+                                    "  AND target_processing_time >= 0",
+                                    "GROUP BY 1",
+                                    "ORDER BY p99_ms DESC",
+                                    "LIMIT 50")))
+                            .build(), regionOptions);
+
+                    var latencyByTargetQuery = new NamedQuery("albLatencyByTarget" + suffix, NamedQueryArgs.builder()
+                            .name("alb-latency-by-target")
+                            .description("p50 and p99 target latency and 5xx count per instance over the last day")
+                            .database(accessLogsDatabase.name())
+                            .workgroup(accessLogsWorkgroup.name())
+                            .query(accessLogsTable.name().applyValue(table -> String.join("\n",
+                                    "SELECT target_ip, target_port,",
+                                    "       count(*) AS requests,",
+                                    "       approx_percentile(target_processing_time, 0.5) * 1000 AS p50_ms,",
+                                    "       approx_percentile(target_processing_time, 0.99) * 1000 AS p99_ms,",
+                                    "       count_if(target_status_code LIKE '5%') AS target_5xx",
+                                    "FROM " + table,
+                                    "WHERE day >= date_format(current_date - interval '1' day, '%Y/%m/%d')",
+                                    "  AND target_processing_time >= 0",
+                                    "GROUP BY 1, 2",
+                                    "ORDER BY p99_ms DESC")))
+                            .build(), regionOptions);
                 }
-                // get config value to string
-                String dbTagNameKeyString = dbTagNameKey.get();
-                String dbTagNameValueString = dbTagNameValue.get();
-                String dbInstanceNameString = dbInstanceName.get();
-                String dbInstanceClassString = dbInstanceClass.get();
-                String dbMasterUsernameString = dbMasterUsername.get();
-                String dbMasterPasswordString = dbMasterPassword.get();
 
-                // create a private subnet group
-                var privateSubnetIds =
-                    Output.all(
-                        privateSubnets.stream().map(Subnet::id).collect(Collectors.toList()));
+                // create a app load balancer
+                var loadBalancer = new LoadBalancer("appLoadBalancer" + suffix, loadBalancerArgs.build(), loadBalancerOptions);
+
+                // forward to the only target group, or split between blue and green by weight, moving traffic
+                // back is a weight change
+                var defaultAction = ListenerDefaultActionArgs.builder()
+                        .type("forward");
+                if (blueGreen) {
+                    defaultAction.forward(ListenerDefaultActionForwardArgs.builder()
+                            .targetGroups(colors.stream()
+                                    .map(color -> ListenerDefaultActionForwardTargetGroupArgs.builder()
+                                            .arn(targetGroups.get(color).arn())
+                                            .weight(colorWeights.get(color))
+                                            .build())
+                                    .collect(Collectors.toList()))
+                            .build());
+                } else {
+                    defaultAction.targetGroupArn(targetGroups.get("blue").arn());
+                }
+
+                // create a listener
+                var listener = new Listener("appListener" + suffix, ListenerArgs.builder()
+                        .loadBalancerArn(loadBalancer.arn())
+                        .port(443)
+                        .protocol("HTTPS")
+                        .sslPolicy("ELBSecurityPolicy-2016-08")
+                        .certificateArn(certificateArn)
+                        .defaultActions(defaultAction.build())
+                        .build(), regionOptions);
+
+                /*
+                create route53 record
+                 */
+                // a replica region is a standby, it gets no record
+                if (dbReplica) {
+                    return Output.of("");
+                }
+                // with more than one independent region every region gets a latency record, route53 answers
+                // with the closest region whose load balancer is healthy
+                var recordArgs = RecordArgs.builder()
+                        .zoneId(zoneId)
+                        .name(domainNameString)
+                        .type("A")
+                        .aliases(RecordAliasArgs.builder()
+                                .name(loadBalancer.dnsName())
+                                .zoneId(loadBalancer.zoneId())
+                                .evaluateTargetHealth(true)
+                                .build());
+                if (latencyRouting) {
+                    recordArgs
+                            .setIdentifier(region)
+                            .latencyRoutingPolicies(RecordLatencyRoutingPolicyArgs.builder()
+                                    .region(region)
+                                    .build());
+                }
+                // a plain record and a latency record of the same name and type cannot exist side by side,
+                // so switching to latency routing deletes the old record first, dns is briefly unanswered
+                var record = new Record("webapp" + suffix, recordArgs.build(),
+                        CustomResourceOptions.builder()
+                                .deleteBeforeReplace(true)
+                                .build());
+
+                if (!primary) {
+                    return Output.of("");
+                }
+
+                /*
+                create dax cluster, primary region only
+                 */
+                // dax sits in front of the table for read heavy lookups, it is only reachable from inside the vpc,
+                // so with dax the lambda moves into the private subnets and reaches sns, gcs and mailgun through a nat
+                boolean daxEnabled = config.getBoolean("daxEnabled").orElse(false);
+                Output<String> daxEndpoint;
+                FunctionVpcConfigArgs lambdaVpcConfig = null;
+                List<Resource> lambdaDependencies = new ArrayList<>();
+                if (daxEnabled) {
+                    String daxNodeType = config.get("daxNodeType").orElse("dax.t3.small");
+                    int daxReplicationFactor = config.getInteger("daxReplicationFactor").orElse(1);
+
+                    var daxRole = new Role("daxRole", RoleArgs.builder()
+                            .assumeRolePolicy(serializeJson(
+                                    jsonObject(
+                                            jsonProperty("Version", "2012-10-17"),
+                                            jsonProperty("Statement", jsonArray(jsonObject(
+                                                    jsonProperty("Effect", "Allow"),
+                                                    jsonProperty("Principal", jsonObject(
+                                                            jsonProperty("Service", "dax.amazonaws.com"))),
+                                                    jsonProperty("Action", "sts:AssumeRole")))))))
+                            .build());
+                    var daxRolePolicy = new RolePolicy("daxRolePolicy", RolePolicyArgs.builder()
+                            .role(daxRole.id())
+                            .policy(dynamoTable.arn().applyValue(tableArn -> serializeJson(
+                                    jsonObject(
+                                            jsonProperty("Version", "2012-10-17"),
+                                            jsonProperty("Statement", jsonArray(jsonObject(
+                                                    jsonProperty("Effect", "Allow"),
+                                                    jsonProperty("Action", jsonArray(
+                                                            "dynamodb:GetItem",
+                                                            "dynamodb:BatchGetItem",
+                                                            "dynamodb:Query",
+                                                            "dynamodb:Scan",
+                                                            "dynamodb:PutItem",
+                                                            "dynamodb:UpdateItem",
+                                                            "dynamodb:DeleteItem",
+                                                            "dynamodb:BatchWriteItem",
+                                                            "dynamodb:ConditionCheckItem",
+                                                            "dynamodb:DescribeTable")),
+                                                    jsonProperty("Resource", jsonArray(
+                                                            tableArn,
+                                                            tableArn + "/index/*")))))))))
+                            .build());
+                    // create nat gateway, the private route table has no way out otherwise, one gateway in the
+                    // first public subnet is enough for the lambda's outbound calls
+                    var natEip = new Eip("natEip", EipArgs.builder()
+                            .domain("vpc")
+                            .build());
+                    var natGateway = new NatGateway("natGateway", NatGatewayArgs.builder()
+                            .allocationId(natEip.id())
+                            .subnetId(publicSubnets.get(0).id())
+                            .build());
+                    var privateNatRoute = new Route("privateNatRoute", RouteArgs.builder()
+                            .routeTableId(privateRouteTable.id())
+                            .destinationCidrBlock("0.0.0.0/0")
+                            .natGatewayId(natGateway.id())
+                            .build());
+
+                    // create lambda security group, outbound only
+                    var lambdaSecurityGroup = new SecurityGroup("lambdaSecurityGroup", SecurityGroupArgs.builder()
+                            .vpcId(main.id())
+                            .description("Security group for lambda function")
+                            .egress(SecurityGroupEgressArgs.builder()
+                                    .fromPort(0)
+                                    .toPort(0)
+                                    .protocol("-1")
+                                    .cidrBlocks("0.0.0.0/0")
+                                    .build())
+                            .build());
+
+                    // the lambda needs to create and delete its network interfaces in the subnets
+                    var lambdaVpcAccess = new RolePolicyAttachment("lambdaVpcAccess", RolePolicyAttachmentArgs.builder()
+                            .role(logRole.name())
+                            .policyArn("arn:aws:iam::aws:policy/service-role/AWSLambdaVPCAccessExecutionRole")
+                            .build());
+
+                    var daxSecurityGroup = new SecurityGroup("daxSecurityGroup", SecurityGroupArgs.builder()
+                            .vpcId(main.id())
+                            .description("Security group for dax cluster")
+                            .ingress(SecurityGroupIngressArgs.builder()
+                                    .description("DAX")
+                                    .fromPort(8111)
+                                    .toPort(8111)
+                                    .protocol("tcp")
+                                    .securityGroups(Output.all(appSecurityGroup.id(), lambdaSecurityGroup.id()))
+                                    .build())
+                            .build());
+                    var daxSubnetGroup = new com.pulumi.aws.dax.SubnetGroup("daxSubnetGroup",
+                            com.pulumi.aws.dax.SubnetGroupArgs.builder()
+                                    .name("csye6225-dax-subnet-group")
+                                    .subnetIds(privateSubnetIds.applyValue(ids -> ids))
+                                    .build());
+                    var daxCluster = new com.pulumi.aws.dax.Cluster("daxCluster",
+                            com.pulumi.aws.dax.ClusterArgs.builder()
+                                    .clusterName("csye6225-dax")
+                                    .iamRoleArn(daxRole.arn())
+                                    .nodeType(daxNodeType)
+                                    .replicationFactor(daxReplicationFactor)
+                                    .subnetGroupName(daxSubnetGroup.name())
+                                    .securityGroupIds(daxSecurityGroup.id().applyValue(List::of))
+                                    .build(),
+                            CustomResourceOptions.builder().dependsOn(daxRolePolicy).build());
 
-                var publicSubnetIds =
-                    Output.all(publicSubnets.stream().map(Subnet::id).collect(Collectors.toList()));
+                    // dax uses its own api actions on the cluster arn
+                    var daxAccessPolicy = new RolePolicy("daxAccessPolicy", RolePolicyArgs.builder()
+                            .role(logRole.id())
+                            .policy(daxCluster.arn().applyValue(clusterArn -> serializeJson(
+                                    jsonObject(
+                                            jsonProperty("Version", "2012-10-17"),
+                                            jsonProperty("Statement", jsonArray(jsonObject(
+                                                    jsonProperty("Effect", "Allow"),
+                                                    jsonProperty("Action", jsonArray(
+                                                            "dax:GetItem",
+                                                            "dax:BatchGetItem",
+                                                            "dax:Query",
+                                                            "dax:PutItem",
+                                                            "dax:UpdateItem",
+                                                            "dax:DeleteItem",
+                                                            "dax:BatchWriteItem",
+                                                            "dax:ConditionCheckItem")),
+                                                    jsonProperty("Resource", clusterArn))))))))
+                            .build());
+                    daxEndpoint = daxCluster.configurationEndpoint();
 
-                var dbPrivateSubnetGroup =
-                    new SubnetGroup(
-                        "db_private_subnet_group",
-                        SubnetGroupArgs.builder()
+                    lambdaVpcConfig = FunctionVpcConfigArgs.builder()
                             .subnetIds(privateSubnetIds.applyValue(ids -> ids))
+                            .securityGroupIds(lambdaSecurityGroup.id().applyValue(List::of))
+                            .build();
+                    lambdaDependencies.add(lambdaVpcAccess);
+                    lambdaDependencies.add(privateNatRoute);
+                } else {
+                    daxEndpoint = Output.of("");
+                }
+
+                /*
+                create lambda function, primary region only
+                 */
+                // create s3 bucket
+                var s3Bucket = new Bucket("myBucket");
+
+                // upload file to s3 bucket
+                var s3BucketObject = new BucketObject("myJar", BucketObjectArgs.builder()
+                        .bucket(s3Bucket.id())
+                        .source(new FileAsset("../aws/src/main/resources/lambda_function-1.0-SNAPSHOT.jar"))
+                        .build());
+
+                // create a s3 key
+                var s3Key = s3BucketObject.key();
+
+                // Create Lambda function to download file
+                var lambdaFunctionArgs = FunctionArgs.builder()
+                        .runtime("java17")
+                        .role(logRole.arn())
+                        .timeout(300)
+                        .handler("northeastern.xiaosongzhai.SnsEventHandler::handleRequest")
+                        .s3Bucket(s3Bucket.id())
+                        .s3Key(s3Key)
+                        .environment(FunctionEnvironmentArgs.builder()
+                                .variables(Output.tuple(gcpCredentials, dynamoTable.name(), daxEndpoint, gcsBucketName)
+                                        .applyValue(t -> Map.of(
+                                                "gcpCredentialsSecret", t.t1,
+                                                "apiKay", "md-I0Fu5zDQVE7oIfOH9gxaPg",
+                                                "dynamoTableName", t.t2,
+                                                "dynamoTtlAttribute", dynamoTtlAttribute,
+                                                "dynamoRecordRetentionDays", String.valueOf(dynamoRecordRetentionDays),
+                                                "daxEndpoint", t.t3,
+                                                "gcsBucketName", t.t4)))
+                                .build());
+                if (lambdaVpcConfig != null) {
+                    lambdaFunctionArgs.vpcConfig(lambdaVpcConfig);
+                }
+                var lambdaFunction = new Function("myLambdaFunction", lambdaFunctionArgs.build(),
+                        CustomResourceOptions.builder()
+                                .dependsOn(lambdaDependencies)
+                                .build());
+
+                // the lambda cannot create its own log group any more
+                var lambdaLogGroup = new LogGroup("lambdaLogGroup", LogGroupArgs.builder()
+                        .name(lambdaFunction.name().applyValue(name -> "/aws/lambda/" + name))
+                        .retentionInDays(logRetentionDays)
+                        .build());
+
+                // Create sns subscription
+                var subscription = new TopicSubscription("subscription", TopicSubscriptionArgs.builder()
+                        .protocol("lambda")
+                        .endpoint(lambdaFunction.arn())
+                        .topic(topic.arn())
+                        .build());
+
+                // sns trigger lambda function
+                var permission = new Permission("triggerLambda", PermissionArgs.builder()
+                        .action("lambda:InvokeFunction")
+                        .function(lambdaFunction.arn())
+                        .principal("sns.amazonaws.com")
+                        .sourceArn(topic.arn())
+                        .build());
+
+                /*
+                create synthetics canaries, primary region only, the record routes them to the nearest region
+                 */
+                boolean canariesEnabled = config.getBoolean("canariesEnabled").orElse(false);
+                if (canariesEnabled) {
+                    List<String> canaryPaths = Arrays.stream(config.get("canaryPaths").orElse("/healthz").split(","))
+                            .map(String::trim)
+                            .collect(Collectors.toList());
+                    String canarySchedule = config.get("canarySchedule").orElse("rate(5 minutes)");
+                    String canaryRuntimeVersion = config.get("canaryRuntimeVersion").orElse("syn-nodejs-puppeteer-6.2");
+                    int canaryTimeout = config.getInteger("canaryTimeout").orElse(60);
+                    double canaryLatencyThresholdMs = config.getDouble("canaryLatencyThresholdMs").orElse(2000.0);
+                    int canaryAlarmPeriod = config.getInteger("canaryAlarmPeriod").orElse(900);
+                    int canaryArtifactRetentionDays = config.getInteger("canaryArtifactRetentionDays").orElse(30);
+
+                    // canary names are at most 21 lowercase characters, one canary per path
+                    Map<String, String> canaryNames = new LinkedHashMap<>();
+                    for (String path : canaryPaths) {
+                        String slug = path.toLowerCase().replaceAll("[^0-9a-z]+", "-").replaceAll("^-+|-+$", "");
+                        String canaryName = "webapp-" + (slug.isEmpty() ? "root" : slug);
+                        canaryNames.put(path, canaryName.substring(0, Math.min(21, canaryName.length())));
+                    }
+                    // check config
+                    if (canaryPaths.stream().anyMatch(path -> !path.startsWith("/"))
+                            || new HashSet<>(canaryNames.values()).size() != canaryPaths.size()
+                            || canaryTimeout < 3
+                            || canaryTimeout > 840
+                            || canaryArtifactRetentionDays < 1
+                            || !(canaryAlarmPeriod == 10 || canaryAlarmPeriod == 30 || canaryAlarmPeriod % 60 == 0)) {
+                        throw new RuntimeException(
+                                "canaryPaths must start with / and give distinct canary names, canaryTimeout must be between 3 and 840 and canaryAlarmPeriod 10, 30 or a multiple of 60");
+                    }
+
+                    // create a bucket for the canary script and run artifacts, old artifacts and script versions expire
+                    var canaryBucket = new Bucket("canaryBucket", BucketArgs.builder()
+                            .bucketPrefix("csye6225-canaries-")
+                            .forceDestroy(true)
+                            // the canary pins the script version so a script change updates it
+                            .versioning(BucketVersioningArgs.builder()
+                                    .enabled(true)
+                                    .build())
+                            .lifecycleRules(
+                                    BucketLifecycleRuleArgs.builder()
+                                            .enabled(true)
+                                            .prefix("artifacts/")
+                                            .expiration(BucketLifecycleRuleExpirationArgs.builder()
+                                                    .days(canaryArtifactRetentionDays)
+                                                    .build())
+                                            .noncurrentVersionExpiration(BucketLifecycleRuleNoncurrentVersionExpirationArgs.builder()
+                                                    .days(1)
+                                                    .build())
+                                            .build(),
+                                    BucketLifecycleRuleArgs.builder()
+                                            .enabled(true)
+                                            .prefix("scripts/")
+                                            .noncurrentVersionExpiration(BucketLifecycleRuleNoncurrentVersionExpirationArgs.builder()
+                                                    .days(canaryArtifactRetentionDays)
+                                                    .build())
+                                            .build())
                             .build());
 
-                // create a mariaDB instance
-                var dbInstance =
-                    new com.pulumi.aws.rds.Instance(
-                        dbInstanceNameString,
-                        com.pulumi.aws.rds.InstanceArgs.builder()
-                            .engine("mariadb")
-                            .engineVersion("10.4.31")
-                            .instanceClass(dbInstanceClassString)
-                            .allocatedStorage(20)
-                            .dbSubnetGroupName(dbPrivateSubnetGroup.name())
-                            .vpcSecurityGroupIds(dbSecurityGroup.id().applyValue(List::of))
-                            .parameterGroupName(dbParameterGroup.name())
-                            .username(dbMasterUsernameString)
-                            .password(dbMasterPasswordString)
-                            .skipFinalSnapshot(true)
-                            .publiclyAccessible(false)
-                            .dbName(dbInstanceNameString)
-                            .multiAz(false)
-                            .tags(Map.of(dbTagNameKeyString, dbTagNameValueString))
+                    // upload the canary script, the nodejs runtimes load the handler from nodejs/node_modules
+                    var canaryScript = new BucketObject("canaryScript", BucketObjectArgs.builder()
+                            .bucket(canaryBucket.id())
+                            .key("scripts/webappCanary.zip")
+                            .source(new AssetArchive(Map.of("nodejs/node_modules/webappCanary.js",
+                                    new FileAsset("../aws/src/main/resources/canary/webappCanary.js"))))
+                            .build());
+
+                    // create canary role, the canaries run as lambda functions
+                    var canaryRole = new Role("canaryRole", RoleArgs.builder()
+                            .assumeRolePolicy(serializeJson(
+                                    jsonObject(
+                                            jsonProperty("Version", "2012-10-17"),
+                                            jsonProperty("Statement", jsonArray(jsonObject(
+                                                    jsonProperty("Effect", "Allow"),
+                                                    jsonProperty("Principal", jsonObject(
+                                                            jsonProperty("Service", "lambda.amazonaws.com"))),
+                                                    jsonProperty("Action", "sts:AssumeRole")))))))
                             .build());
 
-                dbInstance
-                    .address()
-                    .apply(
-                        address -> {
-
-                          // get gcp config
-                          Optional<String> accountNameConfig = config.get("gcpAccountName");
-                          Optional<String> projectID = config.get("projectID");
-                          // check config
-                          if (accountNameConfig.isEmpty() || projectID.isEmpty()) {
-                            throw new RuntimeException("accountName must be configured");
-                          }
-                          // get config value to string
-                          String accountName = accountNameConfig.get();
-                          String projectIDString = projectID.get();
-
-                          // gcp service account
-                          var serviceAccount =
-                              new Account(
-                                  "serviceAccount",
-                                  AccountArgs.builder()
-                                      .displayName(accountName)
-                                      .accountId(accountName)
-                                      .project(projectIDString)
-                                      .build());
-
-                          // bind Storage Object User role to service account
-                          var serviceAccountEmail = serviceAccount.email();
-
-                          serviceAccountEmail.applyValue(
-                              email -> {
-
-                                // bind service account  role to service account
-                                var serviceAccountRole =
-                                    new BucketIAMMember(
-                                        "serviceAccountRole",
-                                        BucketIAMMemberArgs.builder()
-                                            .bucket("csye6225-demo-bucket")
-                                            .role("roles/storage.objectUser")
-                                            .member("serviceAccount:" + email)
-                                            .build());
-
-                                // create access key
-                                var serviceAccountKey =
-                                    new Key(
-                                        "serviceAccountKey",
-                                        KeyArgs.builder()
-                                            .serviceAccountId(serviceAccount.name())
-                                            .publicKeyType("TYPE_X509_PEM_FILE")
-                                            .build());
-
-                                // get private key
-                                var serviceAccountKeySecret = serviceAccountKey.privateKey();
-                                serviceAccountKeySecret.applyValue(
-                                    secret -> {
-
-                                      // Create Amazon Simple Notification Service (Amazon SNS)
-                                      // topic creation
-                                      var topic =
-                                          new Topic(
-                                              "csye6225",
-                                              TopicArgs.builder().displayName("csye6225").build());
-
-                                      // send topic info to userdata
-                                      topic
-                                          .urn()
-                                          .applyValue(
-                                              urn -> {
-                                                // create UserData script
-                                                String cloudWatchAgentSetup =
-                                                    String.join(
-                                                        "\n",
-                                                        "sudo /opt/aws/amazon-cloudwatch-agent/bin/amazon-cloudwatch-agent-ctl \\\n"
-                                                            + "    -a fetch-config \\\n"
-                                                            + "    -m ec2 \\\n"
-                                                            + "    -c file:/opt/cloudwatch-config.json \\\n"
-                                                            + "    -s\ns");
-
-                                                // join urn to userdata
-                                                String userDataWithTopic =
-                                                    String.join("\n", "TopicInfo=" + urn);
-
-                                                String userData =
-                                                    String.join(
-                                                        "\n",
-                                                        "#!/bin/bash",
-                                                        "sudo groupadd csye6225",
-                                                        "sudo useradd -s /bin/false -g csye6225 -d /opt/csye6225 -m csye6225",
-                                                        "cat > /opt/csye6225/application-demo.yml <<EOL",
-                                                        "server:",
-                                                        "  port: 8080",
-                                                        "spring:",
-                                                        "  application:",
-                                                        "    name: csye6225",
-                                                        "  profiles:",
-                                                        "    active: demo",
-                                                        "  main:",
-                                                        "    allow-circular-references: true",
-                                                        "  datasource:",
-                                                        "    driver-class-name: org.mariadb.jdbc.Driver",
-                                                        "    url: jdbc:mariadb://"
-                                                            + address
-                                                            + ":3306/csye6225?createDatabaseIfNotExist=true",
-                                                        "    username: " + dbMasterUsernameString,
-                                                        "    password: " + dbMasterPasswordString,
-                                                        "  jpa:",
-                                                        "    hibernate:",
-                                                        "      ddl-auto: update",
-                                                        "    properties:",
-                                                        "      hibernate:",
-                                                        "        show_sql: true",
-                                                        "        format_sql: true",
-                                                        "        dialect: org.hibernate.dialect.MariaDBDialect",
-                                                        "    database-platform: org.hibernate.dialect.MariaDBDialect",
-                                                        "csv:",
-                                                        "  file:",
-                                                        "    # path: \"classpath:static/users.csv\"",
-                                                        "    path: \"file:/opt/csye6225/users.csv\"",
-                                                        "EOL",
-                                                        "sudo mv /opt/webapp.jar /opt/csye6225/webapp.jar",
-                                                        "sudo mv /opt/users.csv /opt/csye6225/users.csv",
-                                                        "sudo chown csye6225:csye6225 /opt/csye6225/webapp.jar",
-                                                        "sudo chown csye6225:csye6225 /opt/csye6225/users.csv",
-                                                        "sudo chown csye6225:csye6225 /opt/csye6225/application-demo.yml",
-                                                        "sudo touch /var/log/csye6225.log",
-                                                        "sudo chown csye6225:csye6225 /var/log/csye6225.log",
-                                                        "sudo chmod u+rw,g+rw /var/log/csye6225.log",
-                                                        "sudo systemctl enable /etc/systemd/system/csye6225.service",
-                                                        "sudo systemctl start csye6225.service",
-                                                        "sudo systemctl enable amazon-cloudwatch-agent",
-                                                        cloudWatchAgentSetup,
-                                                        userDataWithTopic);
-
-                                                // create ec2 service role and add
-                                                // CloudWatchAgentServerPolicy
-                                                var logRole =
-                                                    new Role(
-                                                        "logRole",
-                                                        RoleArgs.builder()
-                                                            .assumeRolePolicy(
-                                                                serializeJson(
-                                                                    jsonObject(
-                                                                        jsonProperty(
-                                                                            "Version",
-                                                                            "2012-10-17"),
-                                                                        jsonProperty(
-                                                                            "Statement",
-                                                                            jsonArray(
-                                                                                jsonObject(
-                                                                                    jsonProperty(
-                                                                                        "Effect",
-                                                                                        "Allow"),
-                                                                                    jsonProperty(
-                                                                                        "Principal",
-                                                                                        jsonObject(
-                                                                                            jsonProperty(
-                                                                                                "Service",
-                                                                                                jsonArray(
-                                                                                                    "ec2.amazonaws.com",
-                                                                                                    "lambda.amazonaws.com")))),
-                                                                                    jsonProperty(
-                                                                                        "Action",
-                                                                                        "sts:AssumeRole")))))))
-                                                            .build());
-
-                                                var logPolicy =
-                                                    new RolePolicy(
-                                                        "logPolicy",
-                                                        RolePolicyArgs.builder()
-                                                            .role(logRole.id())
-                                                            .policy(
-                                                                serializeJson(
-                                                                    jsonObject(
-                                                                        jsonProperty(
-                                                                            "Version",
-                                                                            "2012-10-17"),
-                                                                        jsonProperty(
-                                                                            "Statement",
-                                                                            jsonArray(
-                                                                                jsonObject(
-                                                                                    jsonProperty(
-                                                                                        "Effect",
-                                                                                        "Allow"),
-                                                                                    jsonProperty(
-                                                                                        "Action",
-                                                                                        jsonArray(
-                                                                                            "cloudwatch:PutMetricData",
-                                                                                            "ec2:DescribeVolumes",
-                                                                                            "ec2:DescribeTags",
-                                                                                            "logs:PutLogEvents",
-                                                                                            "logs:DescribeLogStreams",
-                                                                                            "logs:DescribeLogGroups",
-                                                                                            "logs:CreateLogStream",
-                                                                                            "logs:CreateLogGroup",
-                                                                                            "SNS:Subscribe",
-                                                                                            "SNS:SetTopicAttributes",
-                                                                                            "SNS:RemovePermission",
-                                                                                            "SNS:Publish",
-                                                                                            "SNS:ListSubscriptionsByTopic",
-                                                                                            "SNS:GetTopicAttributes",
-                                                                                            "SNS:DeleteTopic",
-                                                                                            "SNS:AddPermission",
-                                                                                            "SNS:ListTopics",
-                                                                                            "dynamodb:*",
-                                                                                            "lambda:*")),
-                                                                                    jsonProperty(
-                                                                                        "Resource",
-                                                                                        "*")),
-                                                                                jsonObject(
-                                                                                    jsonProperty(
-                                                                                        "Effect",
-                                                                                        "Allow"),
-                                                                                    jsonProperty(
-                                                                                        "Action",
-                                                                                        jsonArray(
-                                                                                            "ssm:GetParameter")),
-                                                                                    jsonProperty(
-                                                                                        "Resource",
-                                                                                        "arn:aws:ssm:*:*:parameter/AmazonCloudWatch-*")))))))
-                                                            .build());
-
-                                                // create ec2 instance profile
-                                                var instanceProfile =
-                                                    new InstanceProfile(
-                                                        "logInstanceProfile",
-                                                        InstanceProfileArgs.builder()
-                                                            .role(logRole.id())
-                                                            .build());
-
-                                                // create a webapp instance
-                                                List<String> securityGroups =
-                                                    Collections.singletonList(id);
-                                                // create launch template used to create auto
-                                                // scaling groups.
-                                                var launchTemplate =
-                                                    new LaunchTemplate(
-                                                        "webappLaunchTemplate",
-                                                        LaunchTemplateArgs.builder()
-                                                            .namePrefix("webapp")
-                                                            .imageId(amiId)
-                                                            .instanceType("t2.micro")
-                                                            .iamInstanceProfile(
-                                                                LaunchTemplateIamInstanceProfileArgs
-                                                                    .builder()
-                                                                    .arn(instanceProfile.arn())
-                                                                    .build())
-                                                            .networkInterfaces(
-                                                                LaunchTemplateNetworkInterfaceArgs
-                                                                    .builder()
-                                                                    .associatePublicIpAddress(
-                                                                        String.valueOf(true))
-                                                                    .securityGroups(
-                                                                        appSecurityGroup
-                                                                            .id()
-                                                                            .applyValue(List::of))
-                                                                    .subnetId(
-                                                                        publicSubnets.get(0).id())
-                                                                    .subnetId(
-                                                                        publicSubnets.get(1).id())
-                                                                    .build())
-                                                            .keyName("test")
-                                                            .userData(
-                                                                Base64.getEncoder()
-                                                                    .encodeToString(
-                                                                        userData.getBytes()))
-                                                            .disableApiTermination(false)
-                                                            .instanceInitiatedShutdownBehavior(
-                                                                "terminate")
-                                                            .blockDeviceMappings(
-                                                                LaunchTemplateBlockDeviceMappingArgs
-                                                                    .builder()
-                                                                    .deviceName("/dev/xvda")
-                                                                    .ebs(
-                                                                        LaunchTemplateBlockDeviceMappingEbsArgs
-                                                                            .builder()
-                                                                            .volumeSize(25)
-                                                                            .volumeType("gp2")
-                                                                            .deleteOnTermination(
-                                                                                String.valueOf(
-                                                                                    true))
-                                                                            .build())
-                                                                    .build())
-                                                            .tagSpecifications(
-                                                                LaunchTemplateTagSpecificationArgs
-                                                                    .builder()
-                                                                    .resourceType("instance")
-                                                                    .tags(Map.of("Name", "webapp"))
-                                                                    .build())
-                                                            .build());
-
-                                                // create auto scaling group
-                                                var appAutoScalingGroup =
-                                                    new Group(
-                                                        "csye6225_asg",
-                                                        GroupArgs.builder()
-                                                            //
-                                                            // .availabilityZones(zoneNames.get(0))
-                                                            .vpcZoneIdentifiers(
-                                                                publicSubnetIds.applyValue(
-                                                                    ids -> ids))
-                                                            .healthCheckGracePeriod(300)
-                                                            .desiredCapacity(1)
-                                                            .maxSize(3)
-                                                            .minSize(1)
-                                                            .launchTemplate(
-                                                                GroupLaunchTemplateArgs.builder()
-                                                                    .id(launchTemplate.id())
-                                                                    .version("$Latest")
-                                                                    .build())
-                                                            .tags(
-                                                                GroupTagArgs.builder()
-                                                                    .key("Name")
-                                                                    .value("csye6225_asg")
-                                                                    .propagateAtLaunch(true)
-                                                                    .build())
-                                                            .defaultCooldown(60)
-                                                            .build());
-
-                                                // create auto scaling policy,Scale up policy when
-                                                // average CPU usage is above 5%. Increment by 1
-                                                var scaleUpPolicy =
-                                                    new Policy(
-                                                        "scaleUpPolicy",
-                                                        PolicyArgs.builder()
-                                                            .name("scaleUpPolicy")
-                                                            .autoscalingGroupName(
-                                                                appAutoScalingGroup.name())
-                                                            .adjustmentType("ChangeInCapacity")
-                                                            .scalingAdjustment(1)
-                                                            .cooldown(60)
-                                                            .build());
-
-                                                // create auto scaling policy,Scale down policy when
-                                                // average CPU usage is below 3%. Decrement by 1
-                                                var scaleDownPolicy =
-                                                    new Policy(
-                                                        "scaleDownPolicy",
-                                                        PolicyArgs.builder()
-                                                            .name("scaleDownPolicy")
-                                                            .autoscalingGroupName(
-                                                                appAutoScalingGroup.name())
-                                                            .adjustmentType("ChangeInCapacity")
-                                                            .scalingAdjustment(-1)
-                                                            .cooldown(60)
-                                                            .build());
-
-                                                appAutoScalingGroup
-                                                    .name()
-                                                    .apply(
-                                                        name -> {
-                                                          // create a cloudwatch alarm, Scale up
-                                                          // policy when average CPU usage is above
-                                                          // 5%. Increment by 1
-                                                          var scaleUpAlarm =
-                                                              new MetricAlarm(
-                                                                  "scaleUpAlarm",
-                                                                  MetricAlarmArgs.builder()
-                                                                      .name("scaleUpAlarm")
-                                                                      .metricName("CPUUtilization")
-                                                                      .alarmDescription(
-                                                                          "Scale up policy when average CPU usage is above 5%. Increment by 1")
-                                                                      .comparisonOperator(
-                                                                          "GreaterThanOrEqualToThreshold")
-                                                                      .insufficientDataActions()
-                                                                      .evaluationPeriods(1)
-                                                                      .metricName("CPUUtilization")
-                                                                      .namespace("AWS/EC2")
-                                                                      .period(60)
-                                                                      .statistic("Average")
-                                                                      .threshold(5.0)
-                                                                      .alarmActions(
-                                                                          scaleUpPolicy
-                                                                              .arn()
-                                                                              .applyValue(List::of))
-                                                                      .dimensions(
-                                                                          Map.of(
-                                                                              "AutoScalingGroupName",
-                                                                              name))
-                                                                      .build());
-
-                                                          // create auto scaling policy,Scale down
-                                                          // policy when average CPU usage is below
-                                                          // 3%. Decrement by 1
-                                                          var scaleDownAlarm =
-                                                              new MetricAlarm(
-                                                                  "scaleDownAlarm",
-                                                                  MetricAlarmArgs.builder()
-                                                                      .name("scaleDownAlarm")
-                                                                      .metricName("CPUUtilization")
-                                                                      .alarmDescription(
-                                                                          "Scale down policy when average CPU usage is below 5%. Decrement by 1")
-                                                                      .comparisonOperator(
-                                                                          "LessThanOrEqualToThreshold")
-                                                                      .insufficientDataActions()
-                                                                      .evaluationPeriods(1)
-                                                                      .metricName("CPUUtilization")
-                                                                      .namespace("AWS/EC2")
-                                                                      .period(60)
-                                                                      .statistic("Average")
-                                                                      .threshold(3.0)
-                                                                      .alarmActions(
-                                                                          scaleDownPolicy
-                                                                              .arn()
-                                                                              .applyValue(List::of))
-                                                                      .dimensions(
-                                                                          Map.of(
-                                                                              "AutoScalingGroupName",
-                                                                              name))
-                                                                      .build());
-
-                                                          // create a app load balancer
-                                                          var loadBalancer =
-                                                              new LoadBalancer(
-                                                                  "appLoadBalancer",
-                                                                  LoadBalancerArgs.builder()
-                                                                      .internal(false)
-                                                                      .loadBalancerType(
-                                                                          "application")
-                                                                      .securityGroups(
-                                                                          loadBalancerSecurityGroup
-                                                                              .id()
-                                                                              .applyValue(List::of))
-                                                                      .subnets(
-                                                                          publicSubnetIds
-                                                                              .applyValue(
-                                                                                  ids -> ids))
-                                                                      .build());
-
-                                                          // create a target group
-                                                          var targetGroup =
-                                                              new TargetGroup(
-                                                                  "appTargetGroup",
-                                                                  TargetGroupArgs.builder()
-                                                                      .port(8080)
-                                                                      .protocol("HTTP")
-                                                                      .targetType("instance")
-                                                                      .vpcId(main.id())
-                                                                      .healthCheck(
-                                                                          TargetGroupHealthCheckArgs
-                                                                              .builder()
-                                                                              .path("/healthz")
-                                                                              .port("8080")
-                                                                              .protocol("HTTP")
-                                                                              .build())
-                                                                      .build());
-                                                          // create a listener
-                                                          var listener =
-                                                              new Listener(
-                                                                  "appListener",
-                                                                  ListenerArgs.builder()
-                                                                      .loadBalancerArn(
-                                                                          loadBalancer.arn())
-                                                                      .port(443)
-                                                                      .protocol("HTTPS")
-                                                                      .sslPolicy("ELBSecurityPolicy-2016-08")
-                                                                      .certificateArn("arn:aws:acm:us-west-2:446423905010:certificate/79368590-1c40-4706-a01e-a911e4d60a21")
-                                                                      .defaultActions(
-                                                                          ListenerDefaultActionArgs
-                                                                              .builder()
-                                                                              .type("forward")
-                                                                              .targetGroupArn(
-                                                                                  targetGroup.arn())
-                                                                              .build())
-                                                                      .build());
-
-                                                          // Attach the load balancer to the Auto
-                                                          // Scaling group
-                                                          var attachment =
-                                                              new Attachment(
-                                                                  "asgAttachment",
-                                                                  AttachmentArgs.builder()
-                                                                      .lbTargetGroupArn(
-                                                                          targetGroup.arn())
-                                                                      .autoscalingGroupName(
-                                                                          appAutoScalingGroup
-                                                                              .name())
-                                                                      .build());
-
-                                                          // create a route53 record
-                                                          Optional<String> hostedZoneId =
-                                                              config.get("zoneId");
-                                                          Optional<String> domainName =
-                                                              config.get("domainName");
-                                                          // check config
-                                                          if (hostedZoneId.isEmpty()
-                                                              || domainName.isEmpty()) {
-                                                            throw new RuntimeException(
-                                                                "zoneId and domainName must be configured");
-                                                          }
-                                                          // get config value to string
-                                                          String zoneId = hostedZoneId.get();
-                                                          String domainNameString =
-                                                              domainName.get();
-                                                          // create a route53 record
-                                                          var record =
-                                                              new Record(
-                                                                  "webapp",
-                                                                  RecordArgs.builder()
-                                                                      .zoneId(zoneId)
-                                                                      .name(domainNameString)
-                                                                      .type("A")
-                                                                      .aliases(
-                                                                          RecordAliasArgs.builder()
-                                                                              .name(
-                                                                                  loadBalancer
-                                                                                      .dnsName())
-                                                                              .zoneId(
-                                                                                  loadBalancer
-                                                                                      .zoneId())
-                                                                              .evaluateTargetHealth(
-                                                                                  true)
-                                                                              .build())
-                                                                      .build());
-
-                                                          // create s3 bucket
-                                                          var s3Bucket = new Bucket("myBucket");
-
-                                                          // upload file to s3 bucket
-                                                          var s3BucketObject =
-                                                              new BucketObject(
-                                                                  "myJar",
-                                                                  BucketObjectArgs.builder()
-                                                                      .bucket(s3Bucket.id())
-                                                                      .source(
-                                                                          new FileAsset(
-                                                                              "../aws/src/main/resources/lambda_function-1.0-SNAPSHOT.jar"))
-                                                                      .build());
-
-                                                          // create a s3 key
-                                                          var s3Key = s3BucketObject.key();
-
-                                                          // Create Lambda function to download file
-                                                          var lambdaFunction =
-                                                              new Function(
-                                                                  "myLambdaFunction",
-                                                                  FunctionArgs.builder()
-                                                                      .runtime("java17")
-                                                                      .role(logRole.arn())
-                                                                      .timeout(300)
-                                                                      .handler(
-                                                                          "northeastern.xiaosongzhai.SnsEventHandler::handleRequest")
-                                                                      .s3Bucket(s3Bucket.id())
-                                                                      .s3Key(s3Key)
-                                                                      .environment(
-                                                                          FunctionEnvironmentArgs
-                                                                              .builder()
-                                                                              .variables(
-                                                                                  Map.of(
-                                                                                      "gcpCredentialsSecret",
-                                                                                      secret,
-                                                                                      "apiKay",
-                                                                                      "md-I0Fu5zDQVE7oIfOH9gxaPg"))
-                                                                              .build())
-                                                                      .build());
-
-                                                          // Create sns subscription
-                                                          var subscription =
-                                                              new TopicSubscription(
-                                                                  "subscription",
-                                                                  TopicSubscriptionArgs.builder()
-                                                                      .protocol("lambda")
-                                                                      .endpoint(
-                                                                          lambdaFunction.arn())
-                                                                      .topic(topic.arn())
-                                                                      .build());
-
-                                                          // sns trigger lambda function
-                                                          var permission =
-                                                              new Permission(
-                                                                  "triggerLambda",
-                                                                  PermissionArgs.builder()
-                                                                      .action(
-                                                                          "lambda:InvokeFunction")
-                                                                      .function(
-                                                                          lambdaFunction.arn())
-                                                                      .principal(
-                                                                          "sns.amazonaws.com")
-                                                                      .sourceArn(topic.arn())
-                                                                      .build());
-
-                                                          return Output.ofNullable(null);
-                                                        });
-                                                return Output.ofNullable(null);
-                                              });
-                                      return Output.ofNullable(null);
-                                    });
-                                return Output.ofNullable(null);
-                              });
-                          return Output.ofNullable(null);
-                        });
-                return Output.ofNullable(null);
-              });
-          return Output.ofNullable(null);
-        });
+                    var canaryPolicy = new RolePolicy("canaryPolicy", RolePolicyArgs.builder()
+                            .role(canaryRole.id())
+                            .policy(canaryBucket.arn().applyValue(bucketArn -> serializeJson(
+                                    jsonObject(
+                                            jsonProperty("Version", "2012-10-17"),
+                                            jsonProperty("Statement", jsonArray(
+                                                    jsonObject(
+                                                            jsonProperty("Effect", "Allow"),
+                                                            jsonProperty("Action", jsonArray(
+                                                                    "s3:PutObject",
+                                                                    "s3:GetObject",
+                                                                    "s3:GetObjectVersion")),
+                                                            jsonProperty("Resource", bucketArn + "/*")),
+                                                    jsonObject(
+                                                            jsonProperty("Effect", "Allow"),
+                                                            jsonProperty("Action", jsonArray("s3:GetBucketLocation")),
+                                                            jsonProperty("Resource", bucketArn)),
+                                                    jsonObject(
+                                                            jsonProperty("Effect", "Allow"),
+                                                            jsonProperty("Action", jsonArray("s3:ListAllMyBuckets")),
+                                                            jsonProperty("Resource", "*")),
+                                                    jsonObject(
+                                                            jsonProperty("Effect", "Allow"),
+                                                            jsonProperty("Action", jsonArray(
+                                                                    "logs:CreateLogGroup",
+                                                                    "logs:CreateLogStream",
+                                                                    "logs:PutLogEvents")),
+                                                            jsonProperty("Resource", "arn:aws:logs:*:*:log-group:/aws/lambda/cwsyn-*")),
+                                                    jsonObject(
+                                                            jsonProperty("Effect", "Allow"),
+                                                            jsonProperty("Action", jsonArray("cloudwatch:PutMetricData")),
+                                                            jsonProperty("Resource", "*"),
+                                                            jsonProperty("Condition", jsonObject(
+                                                                    jsonProperty("StringEquals", jsonObject(
+                                                                            jsonProperty("cloudwatch:namespace", "CloudWatchSynthetics"))))))))))))
+                            .build());
+
+                    for (Map.Entry<String, String> entry : canaryNames.entrySet()) {
+                        String path = entry.getKey();
+                        String canaryName = entry.getValue();
+
+                        // create a canary, it calls the public endpoint like a user would, through route53 and the alb
+                        var canary = new Canary(canaryName, CanaryArgs.builder()
+                                .name(canaryName)
+                                .artifactS3Location(canaryBucket.id()
+                                        .applyValue(id -> "s3://" + id + "/artifacts/" + canaryName + "/"))
+                                .executionRoleArn(canaryRole.arn())
+                                .runtimeVersion(canaryRuntimeVersion)
+                                .handler("webappCanary.handler")
+                                .s3Bucket(canaryBucket.id())
+                                .s3Key(canaryScript.key())
+                                .s3Version(canaryScript.versionId())
+                                .schedule(CanaryScheduleArgs.builder()
+                                        .expression(canarySchedule)
+                                        .build())
+                                .runConfig(CanaryRunConfigArgs.builder()
+                                        .timeoutInSeconds(canaryTimeout)
+                                        .environmentVariables(Map.of("CANARY_URL", "https://" + domainNameString + path))
+                                        .build())
+                                .startCanary(true)
+                                .deleteLambda(true)
+                                .build(), CustomResourceOptions.builder()
+                                .dependsOn(canaryPolicy, record)
+                                .build());
+
+                        // create a cloudwatch alarm, p99 canary duration above the threshold
+                        var canaryLatencyAlarm = new MetricAlarm(canaryName + "LatencyAlarm", MetricAlarmArgs.builder()
+                                .name(canaryName + "-latency")
+                                .metricName("Duration")
+                                .alarmDescription("p99 duration of GET " + path + " from the canary is above "
+                                        + canaryLatencyThresholdMs + " ms")
+                                .comparisonOperator("GreaterThanOrEqualToThreshold")
+                                .evaluationPeriods(2)
+                                .namespace("CloudWatchSynthetics")
+                                .period(canaryAlarmPeriod)
+                                .extendedStatistic("p99")
+                                .threshold(canaryLatencyThresholdMs)
+                                // a stopped canary is not a latency problem
+                                .treatMissingData("notBreaching")
+                                .dimensions(canary.name().applyValue(name -> Map.of("CanaryName", name)))
+                                .build());
+                    }
+                }
+
+                return dbArn;
+            });
+
+            if (primary) {
+                primaryDbArn = regionDbArn;
+            }
+        }
     }
 }
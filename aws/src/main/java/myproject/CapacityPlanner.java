@@ -0,0 +1,262 @@
+package myproject;
+
+import java.util.*;
+
+/*
+derives web tier and database sizing from a target load profile and prints it as a stack config
+fragment, every value comes with the assumption it was derived from
+
+runs offline, plan() only does arithmetic on the profile
+
+mvn compile exec:java -DmainClass=myproject.CapacityPlanner \
+    -DmainArgs="--rps=200 --latency-slo-ms=250 --cpu-ms=20 --db-queries=3 --db-query-ms=4 --burst=3"
+ */
+public class CapacityPlanner {
+    // p99 of an exponential response time is ln(100) times its mean
+    static final double P99_FACTOR = Math.log(100);
+    // never plan a fleet hotter than this, whatever the slo allows
+    static final double MAX_UTILIZATION = 0.7;
+    // connections kept free for the lambda, migrations and admin sessions
+    static final int RESERVED_DB_CONNECTIONS = 10;
+
+    // candidate web instance types, smallest first
+    static final List<InstanceType> INSTANCE_TYPES = List.of(
+            new InstanceType("t3.small", 2, 2, 0.2),
+            new InstanceType("t3.medium", 2, 4, 0.2),
+            new InstanceType("c6i.large", 2, 4, 1.0),
+            new InstanceType("c6i.xlarge", 4, 8, 1.0),
+            new InstanceType("c6i.2xlarge", 8, 16, 1.0),
+            new InstanceType("c6i.4xlarge", 16, 32, 1.0));
+
+    // candidate db instance classes, smallest first
+    static final List<InstanceType> DB_INSTANCE_CLASSES = List.of(
+            new InstanceType("db.t3.micro", 2, 1, 0.1),
+            new InstanceType("db.t3.small", 2, 2, 0.2),
+            new InstanceType("db.t3.medium", 2, 4, 0.2),
+            new InstanceType("db.m5.large", 2, 8, 1.0),
+            new InstanceType("db.m5.xlarge", 4, 16, 1.0),
+            new InstanceType("db.m5.2xlarge", 8, 32, 1.0),
+            new InstanceType("db.m5.4xlarge", 16, 64, 1.0));
+
+    public static void main(String[] args) {
+        Map<String, String> options = StackDeployer.parseOptions(args);
+
+        // check options
+        if (!options.keySet().containsAll(List.of("rps", "latency-slo-ms", "cpu-ms"))) {
+            throw new IllegalArgumentException(
+                    "usage: --rps=n --latency-slo-ms=n --cpu-ms=n [--db-queries=n] [--db-query-ms=n] [--burst=n] "
+                            + "[--zones=n] [--max-instances=n] [--warmup-s=n]");
+        }
+        LoadProfile profile = new LoadProfile(
+                Double.parseDouble(options.get("rps")),
+                Double.parseDouble(options.get("latency-slo-ms")),
+                Double.parseDouble(options.get("cpu-ms")),
+                Double.parseDouble(options.getOrDefault("db-queries", "0")),
+                Double.parseDouble(options.getOrDefault("db-query-ms", "0")),
+                Double.parseDouble(options.getOrDefault("burst", "2")),
+                Integer.parseInt(options.getOrDefault("zones", "3")),
+                Integer.parseInt(options.getOrDefault("max-instances", "12")),
+                Integer.parseInt(options.getOrDefault("warmup-s", "300")));
+
+        System.out.print(plan(profile).toYaml());
+    }
+
+    public static Plan plan(LoadProfile profile) {
+        profile.validate();
+        Plan plan = new Plan();
+
+        double dbMillisPerRequest = profile.dbQueries * profile.dbQueryMillis;
+        double peakRps = profile.rps * profile.burst;
+
+        // utilization: with a mean cpu time of s at utilization u the mean response is about s / (1 - u),
+        // so the highest u that keeps the p99 inside the slo is 1 - s * ln(100) / (slo - db time)
+        double cpuBudget = profile.latencySloMillis - dbMillisPerRequest;
+        if (cpuBudget <= profile.cpuMillis * P99_FACTOR) {
+            throw new IllegalArgumentException(String.format(
+                    "latency slo %.0f ms is not reachable, db time %.1f ms plus p99 of %.1f ms cpu needs at least %.0f ms",
+                    profile.latencySloMillis, dbMillisPerRequest, profile.cpuMillis,
+                    dbMillisPerRequest + profile.cpuMillis * P99_FACTOR));
+        }
+        double utilization = Math.min(MAX_UTILIZATION, 1 - profile.cpuMillis * P99_FACTOR / cpuBudget);
+
+        // instance type: the smallest type whose peak fleet fits in max-instances
+        InstanceType instanceType = null;
+        double instanceRps = 0;
+        int maxSize = 0;
+        for (InstanceType candidate : INSTANCE_TYPES) {
+            instanceRps = candidate.vcpus * candidate.baseline * 1000 / profile.cpuMillis * utilization;
+            maxSize = roundUp((int) Math.ceil(peakRps / instanceRps), profile.zones);
+            if (maxSize <= profile.maxInstances) {
+                instanceType = candidate;
+                break;
+            }
+        }
+        if (instanceType == null) {
+            throw new IllegalArgumentException(String.format(
+                    "%.0f req/s at peak needs more than %d instances of the largest type, raise --max-instances",
+                    peakRps, profile.maxInstances));
+        }
+        plan.put("instanceType", instanceType.name, String.format(
+                "%d vCPU at %.0f%% baseline and %.0f%% utilization serve %.1f req/s at %.1f ms cpu each",
+                instanceType.vcpus, instanceType.baseline * 100, utilization * 100, instanceRps, profile.cpuMillis));
+
+        // asg bounds: steady load spread over every zone, peak load rounded up to whole zones
+        int minSize = Math.max(profile.zones, roundUp((int) Math.ceil(profile.rps / instanceRps), profile.zones));
+        maxSize = Math.max(maxSize, minSize);
+        plan.put("asgMinSize", String.valueOf(minSize), String.format(
+                "%.0f req/s steady load, at least one instance in each of %d zones", profile.rps, profile.zones));
+        plan.put("asgDesiredCapacity", String.valueOf(minSize), "start at the steady load size");
+        plan.put("asgMaxSize", String.valueOf(maxSize), String.format(
+                "%.0f req/s peak (burst factor %.1f), rounded up to whole zones", peakRps, profile.burst));
+
+        // scaling: scale out at the planned utilization, scale in well below it so that removing one
+        // instance does not push the rest back over the scale out threshold. CPUUtilization is measured
+        // against all vcpus, so a burstable type scales out at its planned share of the baseline. Both
+        // thresholds are kept in tenths of a percent, tight slos on burstable types plan below 2%
+        int scaleUpCpuTenths = (int) Math.floor(utilization * instanceType.baseline * 1000);
+        if (scaleUpCpuTenths < 2) {
+            throw new IllegalArgumentException(String.format(
+                    "planned cpu utilization of %.2f%% is too low to scale on, relax the latency slo or lower the cpu time",
+                    utilization * instanceType.baseline * 100));
+        }
+        int scaleDownCpuTenths = scaleUpCpuTenths / 2;
+        plan.put("scaleUpCpuThreshold", String.valueOf(scaleUpCpuTenths / 10.0),
+                "planned utilization of the cpu baseline, above it the p99 leaves the slo");
+        plan.put("scaleDownCpuThreshold", String.valueOf(scaleDownCpuTenths / 10.0),
+                "half the scale up threshold, hysteresis for fleets of two or more");
+        plan.put("scalingAlarmPeriod", "60", "shortest period of the standard ec2 metrics");
+        plan.put("scalingCooldown", String.valueOf(profile.warmupSeconds), String.format(
+                "an instance needs about %d s before it takes traffic", profile.warmupSeconds));
+
+        // connection pool: little's law, connections in use = request rate * time each request holds one
+        double instancePeakRps = instanceRps / utilization;
+        int dbPoolSize = Math.max(2, (int) Math.ceil(instancePeakRps * dbMillisPerRequest / 1000 * 1.25));
+        int dbMaxConnections = roundUp(maxSize * dbPoolSize + RESERVED_DB_CONNECTIONS, 10);
+        plan.put("dbPoolSize", String.valueOf(dbPoolSize), String.format(
+                "%.1f req/s per saturated instance holding a connection for %.1f ms, plus 25%%",
+                instancePeakRps, dbMillisPerRequest));
+        plan.put("dbMaxConnections", String.valueOf(dbMaxConnections), String.format(
+                "%d instances at full pools plus %d reserved", maxSize, RESERVED_DB_CONNECTIONS));
+
+        // db class: the smallest class whose cpu keeps up with the peak query rate at MAX_UTILIZATION and
+        // whose memory holds the connections, mariadb budgets about 12 MB per connection
+        double peakQps = peakRps * profile.dbQueries;
+        InstanceType dbInstanceClass = null;
+        for (InstanceType candidate : DB_INSTANCE_CLASSES) {
+            double qps = profile.dbQueryMillis == 0 ? Double.MAX_VALUE
+                    : candidate.vcpus * candidate.baseline * 1000 / profile.dbQueryMillis * MAX_UTILIZATION;
+            long connections = candidate.memoryGib * 1024L / 12;
+            if (qps >= peakQps && connections >= dbMaxConnections) {
+                dbInstanceClass = candidate;
+                break;
+            }
+        }
+        if (dbInstanceClass == null) {
+            throw new IllegalArgumentException(String.format(
+                    "%.0f queries/s with %d connections does not fit a single db instance", peakQps, dbMaxConnections));
+        }
+        plan.put("dbInstanceClass", dbInstanceClass.name, String.format(
+                "%.0f queries/s at peak, %d connections at about 12 MB each in %d GiB",
+                peakQps, dbMaxConnections, dbInstanceClass.memoryGib));
+
+        plan.validate();
+        return plan;
+    }
+
+    private static int roundUp(int value, int multiple) {
+        return (value + multiple - 1) / multiple * multiple;
+    }
+
+    public static class LoadProfile {
+        public final double rps;
+        public final double latencySloMillis;
+        public final double cpuMillis;
+        public final double dbQueries;
+        public final double dbQueryMillis;
+        public final double burst;
+        public final int zones;
+        public final int maxInstances;
+        public final int warmupSeconds;
+
+        public LoadProfile(double rps, double latencySloMillis, double cpuMillis, double dbQueries,
+                           double dbQueryMillis, double burst, int zones, int maxInstances, int warmupSeconds) {
+            this.rps = rps;
+            this.latencySloMillis = latencySloMillis;
+            this.cpuMillis = cpuMillis;
+            this.dbQueries = dbQueries;
+            this.dbQueryMillis = dbQueryMillis;
+            this.burst = burst;
+            this.zones = zones;
+            this.maxInstances = maxInstances;
+            this.warmupSeconds = warmupSeconds;
+        }
+
+        void validate() {
+            if (rps <= 0 || latencySloMillis <= 0 || cpuMillis <= 0) {
+                throw new IllegalArgumentException("rps, latency slo and cpu time must be positive");
+            }
+            if (dbQueries < 0 || dbQueryMillis < 0 || burst < 1 || zones < 1 || maxInstances < zones || warmupSeconds < 0) {
+                throw new IllegalArgumentException(
+                        "db queries and query time must not be negative, burst must be at least 1 and max instances at least zones");
+            }
+        }
+    }
+
+    // config key to value and the assumption behind it, in the order they were derived
+    public static class Plan {
+        private final Map<String, String> values = new LinkedHashMap<>();
+        private final Map<String, String> assumptions = new LinkedHashMap<>();
+
+        void put(String key, String value, String assumption) {
+            values.put(key, value);
+            assumptions.put(key, assumption);
+        }
+
+        public Map<String, String> values() {
+            return Collections.unmodifiableMap(values);
+        }
+
+        public Map<String, String> assumptions() {
+            return Collections.unmodifiableMap(assumptions);
+        }
+
+        // same rules App.stack enforces on the config
+        void validate() {
+            int min = Integer.parseInt(values.get("asgMinSize"));
+            int desired = Integer.parseInt(values.get("asgDesiredCapacity"));
+            int max = Integer.parseInt(values.get("asgMaxSize"));
+            if (min < 0 || desired < min || max < desired) {
+                throw new IllegalStateException("planned asg bounds violate min <= desired <= max");
+            }
+            if (Double.parseDouble(values.get("scaleDownCpuThreshold")) >= Double.parseDouble(values.get("scaleUpCpuThreshold"))) {
+                throw new IllegalStateException("planned scale down threshold is not below the scale up threshold");
+            }
+            if (max * Integer.parseInt(values.get("dbPoolSize")) > Integer.parseInt(values.get("dbMaxConnections"))) {
+                throw new IllegalStateException("planned pools exceed dbMaxConnections");
+            }
+        }
+
+        public String toYaml() {
+            StringBuilder yaml = new StringBuilder("config:\n");
+            values.forEach((key, value) -> yaml
+                    .append("  # ").append(assumptions.get(key)).append('\n')
+                    .append("  aws-pulumi-setup:").append(key).append(": \"").append(value).append("\"\n"));
+            return yaml.toString();
+        }
+    }
+
+    static class InstanceType {
+        final String name;
+        final int vcpus;
+        final int memoryGib;
+        // share of the vcpus a burstable type can use without credits
+        final double baseline;
+
+        InstanceType(String name, int vcpus, int memoryGib, double baseline) {
+            this.name = name;
+            this.vcpus = vcpus;
+            this.memoryGib = memoryGib;
+            this.baseline = baseline;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package myproject;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/*
+reads the json lines written by pulumi --event-log
+ */
+public class EngineEvents {
+    private final Map<String, Integer> operationCounts = new TreeMap<>();
+    private final Map<String, Long> stepStarts = new HashMap<>();
+    private final List<ResourceStep> steps = new ArrayList<>();
+
+    public static EngineEvents read(Path eventLog) throws IOException {
+        EngineEvents events = new EngineEvents();
+        if (!Files.exists(eventLog)) {
+            return events;
+        }
+        for (String line : Files.readAllLines(eventLog, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            events.accept(JsonParser.parseString(line).getAsJsonObject());
+        }
+        return events;
+    }
+
+    private void accept(JsonObject event) {
+        // a resource step starts with a pre event and ends with an outputs event carrying the operation
+        // it performed, engine timestamps are whole seconds
+        if (event.has("resourcePreEvent")) {
+            JsonObject metadata = event.getAsJsonObject("resourcePreEvent").getAsJsonObject("metadata");
+            stepStarts.put(metadata.get("urn").getAsString(), event.get("timestamp").getAsLong());
+        }
+        if (event.has("resOutputsEvent")) {
+            JsonObject metadata = event.getAsJsonObject("resOutputsEvent").getAsJsonObject("metadata");
+            String op = metadata.get("op").getAsString();
+            String urn = metadata.get("urn").getAsString();
+            String type = metadata.get("type").getAsString();
+            // the stack resource itself is not interesting
+            if (!type.equals("pulumi:pulumi:Stack")) {
+                operationCounts.merge(op, 1, Integer::sum);
+                long end = event.get("timestamp").getAsLong();
+                steps.add(new ResourceStep(urn, type, op, end - stepStarts.getOrDefault(urn, end)));
+            }
+        }
+    }
+
+    // resource operation (create, update, delete, replace, same, ...) to number of resources
+    public Map<String, Integer> operationCounts() {
+        return Collections.unmodifiableMap(operationCounts);
+    }
+
+    // finished resource steps in completion order
+    public List<ResourceStep> steps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    public static class ResourceStep {
+        public final String urn;
+        public final String type;
+        public final String op;
+        public final long seconds;
+
+        ResourceStep(String urn, String type, String op, long seconds) {
+            this.urn = urn;
+            this.type = type;
+            this.op = op;
+            this.seconds = seconds;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package myproject;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/*
+runs a full up and destroy of one stack against localstack and writes per resource step times
+and wall times to a json report, start the container first with scripts/localstack.sh start
+
+mvn compile exec:java -DmainClass=myproject.LocalStackBenchmark -DmainArgs="--stack=localstack"
+ */
+public class LocalStackBenchmark {
+    // services the stack talks to, every one is pointed at the localstack edge endpoint
+    static final List<String> SERVICES = List.of(
+            "acm", "applicationautoscaling", "athena", "autoscaling", "cloudwatch", "dax", "dynamodb", "ec2",
+            "elbv2", "glue", "iam", "lambda", "logs", "rds", "route53", "s3", "sns", "sts");
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = StackDeployer.parseOptions(args);
+
+        // get options
+        String stack = options.getOrDefault("stack", "localstack");
+        String endpoint = options.getOrDefault("endpoint", "http://localhost:4566");
+        boolean keep = options.containsKey("keep");
+        Path workDir = Paths.get(options.getOrDefault("work-dir", ".")).toAbsolutePath().normalize();
+        String backendUrl = options.getOrDefault("backend", PulumiCli.DEFAULT_BACKEND_URL);
+        Path reportDir = Files.createDirectories(workDir.resolve("target").resolve("localstack-benchmark"));
+        Path report = Paths.get(options.getOrDefault("report",
+                reportDir.resolve(stack + "-" + System.currentTimeMillis() + ".json").toString()));
+
+        if (backendUrl.startsWith("file://")) {
+            Files.createDirectories(Paths.get(backendUrl.substring("file://".length())));
+        }
+
+        // the local stack has no secrets, an empty passphrase is enough unless one is given
+        Map<String, String> environment = new HashMap<>();
+        environment.put("PULUMI_CONFIG_PASSPHRASE", Optional.ofNullable(System.getenv("PULUMI_CONFIG_PASSPHRASE")).orElse(""));
+        PulumiCli cli = new PulumiCli(workDir, backendUrl, environment);
+        String prefix = "[" + stack + "] ";
+
+        // check stack, the endpoints below are written into Pulumi.<stack>.yaml, never point a stack that
+        // deploys to a real account at localhost
+        Path stackFile = workDir.resolve("Pulumi." + stack + ".yaml");
+        if (!isLocalStackConfigured(stackFile)) {
+            throw new IllegalArgumentException(stackFile + " is not configured for localstack, it needs "
+                    + "aws:skipCredentialsValidation: \"true\" and an aws:endpoints list like Pulumi.localstack.yaml");
+        }
+        if (cli.initStack(stack, prefix) != 0) {
+            throw new RuntimeException("could not create stack " + stack + " in " + backendUrl);
+        }
+        // only rewrite endpoints that differ, the committed stack file stays clean and the default endpoint
+        // costs no cli calls before the timed phases
+        Map<String, String> configuredEndpoints = configuredEndpoints(stackFile);
+        for (String service : SERVICES) {
+            if (!endpoint.equals(configuredEndpoints.get(service))) {
+                cli.run(prefix, List.of("config", "set", "--stack", stack, "--path",
+                        "aws:endpoints[0]." + service, endpoint));
+            }
+        }
+
+        List<Phase> phases = new ArrayList<>();
+        long start = System.nanoTime();
+        phases.add(runPhase(cli, stack, prefix, "up", reportDir));
+        // destroy even after a failed up so that the next run starts from an empty localstack
+        if (!keep) {
+            phases.add(runPhase(cli, stack, prefix, "destroy", reportDir));
+        }
+        Duration wallTime = Duration.ofNanos(System.nanoTime() - start);
+
+        Files.writeString(report, new GsonBuilder().setPrettyPrinting().create()
+                .toJson(toJson(stack, endpoint, phases, wallTime)), StandardCharsets.UTF_8);
+        printSummary(phases, wallTime);
+        System.out.println("report written to " + report);
+        if (phases.stream().anyMatch(phase -> phase.exitCode != 0)) {
+            System.exit(1);
+        }
+    }
+
+    // a localstack stack already has an endpoints list and skips the credential check against real aws
+    static boolean isLocalStackConfigured(Path stackFile) throws IOException {
+        if (!Files.exists(stackFile)) {
+            return false;
+        }
+        List<String> lines = Files.readAllLines(stackFile, StandardCharsets.UTF_8).stream()
+                .map(String::trim)
+                .collect(Collectors.toList());
+        return lines.contains("aws:endpoints:")
+                && lines.contains("aws:skipCredentialsValidation: \"true\"");
+    }
+
+    // service to endpoint of the first aws:endpoints entry, the stack file is the yaml pulumi config set writes
+    static Map<String, String> configuredEndpoints(Path stackFile) throws IOException {
+        Map<String, String> endpoints = new HashMap<>();
+        boolean inEndpoints = false;
+        boolean firstEntry = false;
+        int indent = 0;
+        for (String line : Files.readAllLines(stackFile, StandardCharsets.UTF_8)) {
+            String trimmed = line.trim();
+            int lineIndent = line.length() - line.stripLeading().length();
+            if (trimmed.equals("aws:endpoints:")) {
+                inEndpoints = true;
+                indent = lineIndent;
+                continue;
+            }
+            if (!inEndpoints || trimmed.isEmpty()) {
+                continue;
+            }
+            if (lineIndent <= indent && !trimmed.startsWith("- ")) {
+                break;
+            }
+            if (trimmed.startsWith("- ")) {
+                // a second list entry ends the first one
+                if (firstEntry) {
+                    break;
+                }
+                firstEntry = true;
+                trimmed = trimmed.substring(2).trim();
+            }
+            String[] keyValue = trimmed.split(":", 2);
+            if (keyValue.length == 2) {
+                endpoints.put(keyValue[0].trim(), keyValue[1].trim().replace("\"", ""));
+            }
+        }
+        return endpoints;
+    }
+
+    private static Phase runPhase(PulumiCli cli, String stack, String prefix, String operation, Path reportDir)
+            throws Exception {
+        Path eventLog = reportDir.resolve(stack + "-" + operation + ".jsonl");
+        Files.deleteIfExists(eventLog);
+
+        long start = System.nanoTime();
+        int exitCode = cli.operation(operation, stack, prefix, eventLog);
+        Duration duration = Duration.ofNanos(System.nanoTime() - start);
+
+        return new Phase(operation, exitCode, duration, EngineEvents.read(eventLog));
+    }
+
+    private static JsonObject toJson(String stack, String endpoint, List<Phase> phases, Duration wallTime) {
+        JsonObject report = new JsonObject();
+        report.addProperty("stack", stack);
+        report.addProperty("endpoint", endpoint);
+        report.addProperty("wallSeconds", wallTime.toMillis() / 1000.0);
+
+        JsonArray phaseArray = new JsonArray();
+        for (Phase phase : phases) {
+            JsonObject phaseObject = new JsonObject();
+            phaseObject.addProperty("operation", phase.operation);
+            phaseObject.addProperty("exitCode", phase.exitCode);
+            phaseObject.addProperty("wallSeconds", phase.duration.toMillis() / 1000.0);
+
+            JsonObject counts = new JsonObject();
+            phase.events.operationCounts().forEach(counts::addProperty);
+            phaseObject.add("operationCounts", counts);
+
+            JsonArray resources = new JsonArray();
+            for (EngineEvents.ResourceStep step : phase.events.steps()) {
+                JsonObject resource = new JsonObject();
+                resource.addProperty("urn", step.urn);
+                resource.addProperty("type", step.type);
+                resource.addProperty("op", step.op);
+                resource.addProperty("seconds", step.seconds);
+                resources.add(resource);
+            }
+            phaseObject.add("resources", resources);
+            phaseArray.add(phaseObject);
+        }
+        report.add("phases", phaseArray);
+        return report;
+    }
+
+    private static void printSummary(List<Phase> phases, Duration wallTime) {
+        System.out.println();
+        for (Phase phase : phases) {
+            System.out.printf("%s: exit %d, %.1fs, %s%n", phase.operation, phase.exitCode,
+                    phase.duration.toMillis() / 1000.0, phase.events.operationCounts());
+            List<EngineEvents.ResourceStep> slowest = phase.events.steps().stream()
+                    .sorted(Comparator.comparingLong((EngineEvents.ResourceStep step) -> step.seconds).reversed())
+                    .limit(10)
+                    .collect(Collectors.toList());
+            for (EngineEvents.ResourceStep step : slowest) {
+                System.out.printf("  %5ds  %-8s %s%n", step.seconds, step.op, step.urn.substring(step.urn.lastIndexOf("::") + 2));
+            }
+        }
+        System.out.printf("wall time %.1fs%n", wallTime.toMillis() / 1000.0);
+    }
+
+    private static class Phase {
+        final String operation;
+        final int exitCode;
+        final Duration duration;
+        final EngineEvents events;
+
+        Phase(String operation, int exitCode, Duration duration, EngineEvents events) {
+            this.operation = operation;
+            this.exitCode = exitCode;
+            this.duration = duration;
+            this.events = events;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package myproject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+
+/*
+builds App.stack under mocks and checks the inputs of every registered resource for performance
+anti-patterns, exits 1 when a finding is at or above --fail-on
+
+mvn -Pperf-lint verify -DperfLint.stack=dev -DperfLint.failOn=error
+ */
+public class PerformanceLinter {
+    static final List<String> SEVERITIES = List.of("off", "info", "warning", "error");
+
+    static final String LAUNCH_TEMPLATE = "aws:ec2/launchTemplate:LaunchTemplate";
+    static final String EC2_INSTANCE = "aws:ec2/instance:Instance";
+    static final String DB_INSTANCE = "aws:rds/instance:Instance";
+    static final String AUTO_SCALING_GROUP = "aws:autoscaling/group:Group";
+    static final String LAMBDA_FUNCTION = "aws:lambda/function:Function";
+    static final Set<String> TARGET_GROUPS = Set.of("aws:alb/targetGroup:TargetGroup", "aws:lb/targetGroup:TargetGroup");
+
+    static final List<Rule> RULES = List.of(
+            new Rule("burstable-instance", "warning", Set.of(LAUNCH_TEMPLATE, EC2_INSTANCE, DB_INSTANCE), inputs -> {
+                String type = string(inputs, "instanceType").orElse(string(inputs, "instanceClass").orElse(""));
+                return type.startsWith("t2.") || type.startsWith("db.t2.")
+                        ? Optional.of(type + " is throttled to its cpu baseline once the credits run out")
+                        : Optional.empty();
+            }),
+            new Rule("gp2-volume", "warning", Set.of(LAUNCH_TEMPLATE, EC2_INSTANCE, DB_INSTANCE), inputs -> {
+                boolean gp2 = list(inputs, "blockDeviceMappings").stream()
+                        .map(mapping -> map(mapping, "ebs"))
+                        .anyMatch(ebs -> string(ebs, "volumeType").filter("gp2"::equals).isPresent())
+                        || list(inputs, "ebsBlockDevices").stream()
+                        .anyMatch(ebs -> string(map(ebs), "volumeType").filter("gp2"::equals).isPresent())
+                        || string(map(inputs.get("rootBlockDevice")), "volumeType").filter("gp2"::equals).isPresent()
+                        || string(inputs, "storageType").filter("gp2"::equals).isPresent();
+                return gp2
+                        ? Optional.of("gp2 iops scale with size and burst on credits, gp3 gives 3000 iops at any size")
+                        : Optional.empty();
+            }),
+            new Rule("single-az-db", "warning", Set.of(DB_INSTANCE), inputs -> {
+                boolean multiAz = Boolean.TRUE.equals(inputs.get("multiAz"));
+                boolean replica = string(inputs, "replicateSourceDb").isPresent();
+                return multiAz || replica
+                        ? Optional.empty()
+                        : Optional.of("single-AZ instance, a zone failure or maintenance means a full restore");
+            }),
+            new Rule("show-sql", "error", Set.of(LAUNCH_TEMPLATE, EC2_INSTANCE), inputs -> {
+                String userData = string(inputs, "userData").map(PerformanceLinter::decodeUserData).orElse("");
+                return userData.contains("show_sql: true")
+                        ? Optional.of("user data enables hibernate show_sql, every statement is written to stdout")
+                        : Optional.empty();
+            }),
+            new Rule("latest-template-version", "error", Set.of(AUTO_SCALING_GROUP), inputs ->
+                    string(map(inputs.get("launchTemplate")), "version").filter("$Latest"::equals).isPresent()
+                            ? Optional.of("$Latest hides template changes from the group, no instance refresh is started")
+                            : Optional.empty()),
+            new Rule("no-slow-start", "warning", TARGET_GROUPS, inputs -> {
+                Object slowStart = inputs.get("slowStart");
+                return slowStart instanceof Number && ((Number) slowStart).intValue() > 0
+                        ? Optional.empty()
+                        : Optional.of("new targets get a full share of requests while their jvm is still cold");
+            }),
+            new Rule("default-lambda-memory", "warning", Set.of(LAMBDA_FUNCTION), inputs -> {
+                Object memorySize = inputs.get("memorySize");
+                return memorySize == null || ((Number) memorySize).intValue() == 128
+                        ? Optional.of("128 MB also means the smallest cpu share, java cold starts take seconds")
+                        : Optional.empty();
+            }));
+
+    public static void main(String[] args) {
+        Map<String, String> options = StackDeployer.parseOptions(args);
+
+        // get options
+        String stack = options.getOrDefault("stack", "dev");
+        String failOn = options.getOrDefault("fail-on", "error");
+        // check options
+        if (!SEVERITIES.contains(failOn)) {
+            throw new IllegalArgumentException("fail-on must be one of " + SEVERITIES);
+        }
+        // --severity.<rule>=off|info|warning|error overrides the default of a rule
+        Map<String, String> severities = new HashMap<>();
+        for (Rule rule : RULES) {
+            String severity = options.getOrDefault("severity." + rule.id, rule.defaultSeverity);
+            if (!SEVERITIES.contains(severity)) {
+                throw new IllegalArgumentException("severity of " + rule.id + " must be one of " + SEVERITIES);
+            }
+            severities.put(rule.id, severity);
+        }
+
+        var mocks = new StackMocks(options.getOrDefault("region", "us-west-2"));
+        List<Throwable> exceptions = mocks.runStack(stack);
+        if (!exceptions.isEmpty()) {
+            exceptions.forEach(Throwable::printStackTrace);
+            System.exit(2);
+        }
+
+        List<Finding> findings = lint(mocks.resources(), severities);
+        printReport(stack, mocks.resources().size(), findings);
+        if (findings.stream().anyMatch(finding -> SEVERITIES.indexOf(finding.severity) >= SEVERITIES.indexOf(failOn)
+                && !failOn.equals("off"))) {
+            System.exit(1);
+        }
+    }
+
+    public static List<Finding> lint(List<StackMocks.RegisteredResource> resources, Map<String, String> severities) {
+        List<Finding> findings = new ArrayList<>();
+        for (StackMocks.RegisteredResource resource : resources) {
+            for (Rule rule : RULES) {
+                String severity = severities.getOrDefault(rule.id, rule.defaultSeverity);
+                if (severity.equals("off") || !rule.types.contains(resource.type)) {
+                    continue;
+                }
+                rule.check.apply(resource.inputs).ifPresent(message ->
+                        findings.add(new Finding(rule.id, severity, resource.type, resource.name, message)));
+            }
+        }
+        findings.sort(Comparator.comparing((Finding finding) -> -SEVERITIES.indexOf(finding.severity))
+                .thenComparing(finding -> finding.rule)
+                .thenComparing(finding -> finding.resource));
+        return findings;
+    }
+
+    private static void printReport(String stack, int resourceCount, List<Finding> findings) {
+        System.out.printf("%d resources of stack %s checked, %d findings%n", resourceCount, stack, findings.size());
+        for (Finding finding : findings) {
+            System.out.printf("%-8s %-24s %-40s %s%n", finding.severity, finding.rule, finding.resource, finding.message);
+        }
+    }
+
+    private static String decodeUserData(String userData) {
+        try {
+            return new String(Base64.getDecoder().decode(userData), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            // plain text user data
+            return userData;
+        }
+    }
+
+    private static Optional<String> string(Map<String, Object> inputs, String key) {
+        Object value = inputs.get(key);
+        return value instanceof String ? Optional.of((String) value) : Optional.empty();
+    }
+
+    private static List<?> list(Map<String, Object> inputs, String key) {
+        Object value = inputs.get(key);
+        return value instanceof List ? (List<?>) value : List.of();
+    }
+
+    private static Map<String, Object> map(Object value, String key) {
+        return map(map(value).get(key));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> map(Object value) {
+        return value instanceof Map ? (Map<String, Object>) value : Map.of();
+    }
+
+    static class Rule {
+        final String id;
+        final String defaultSeverity;
+        final Set<String> types;
+        final Function<Map<String, Object>, Optional<String>> check;
+
+        Rule(String id, String defaultSeverity, Set<String> types, Function<Map<String, Object>, Optional<String>> check) {
+            this.id = id;
+            this.defaultSeverity = defaultSeverity;
+            this.types = types;
+            this.check = check;
+        }
+    }
+
+    public static class Finding {
+        public final String rule;
+        public final String severity;
+        public final String type;
+        public final String resource;
+        public final String message;
+
+        Finding(String rule, String severity, String type, String resource, String message) {
+            this.rule = rule;
+            this.severity = severity;
+            this.type = type;
+            this.resource = resource;
+            this.message = message;
+        }
+    }
+}
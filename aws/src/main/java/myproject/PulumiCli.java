@@ -0,0 +1,112 @@
+package myproject;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Consumer;
+
+/*
+runs the pulumi cli against one backend, every output line is prefixed so that several stacks
+can share the console
+ */
+public class PulumiCli {
+    // outside target/ so that mvn clean never takes the state of deployed stacks with it
+    public static final String DEFAULT_BACKEND_URL = "file://"
+            + Paths.get(System.getProperty("user.home"), ".pulumi-backends", "aws-pulumi-setup");
+
+    private final Path workDir;
+    private final String backendUrl;
+    private final Map<String, String> environment;
+
+    public PulumiCli(Path workDir, String backendUrl, Map<String, String> environment) {
+        this.workDir = workDir;
+        this.backendUrl = backendUrl;
+        this.environment = environment;
+    }
+
+    public PulumiCli(Path workDir, String backendUrl) {
+        this(workDir, backendUrl, Map.of());
+    }
+
+    // names of the stacks of this project in the backend
+    public Set<String> stacks() throws IOException, InterruptedException {
+        StringBuilder json = new StringBuilder();
+        int exitCode = execute(List.of("stack", "ls", "--json"), line -> json.append(line).append('\n'));
+        if (exitCode != 0) {
+            throw new IOException("pulumi stack ls failed: " + json);
+        }
+        Set<String> stacks = new TreeSet<>();
+        // stderr is merged into the output, skip anything printed before the json array
+        String array = json.substring(Math.max(0, json.indexOf("[")));
+        for (JsonElement stack : JsonParser.parseString(array).getAsJsonArray()) {
+            // file backends may report org/project/stack
+            String name = stack.getAsJsonObject().get("name").getAsString();
+            stacks.add(name.substring(name.lastIndexOf('/') + 1));
+        }
+        return stacks;
+    }
+
+    // create the stack unless it exists, without selecting it, the selection lives in a workspace file
+    // shared by every process so concurrent runs only ever pass --stack
+    public int initStack(String stack, String prefix) throws IOException, InterruptedException {
+        if (stacks().contains(stack)) {
+            return 0;
+        }
+        return run(prefix, List.of("stack", "init", "--no-select", stack));
+    }
+
+    // run an engine operation (preview, up, destroy, refresh) and write engine events to eventLog
+    public int operation(String operation, String stack, String prefix, Path eventLog, String... extraArgs)
+            throws IOException, InterruptedException {
+        List<String> args = new ArrayList<>(List.of(operation, "--stack", stack, "--non-interactive"));
+        if (!operation.equals("preview")) {
+            args.add("--yes");
+            args.add("--skip-preview");
+        }
+        if (eventLog != null) {
+            args.add("--event-log");
+            args.add(eventLog.toAbsolutePath().toString());
+        }
+        args.addAll(Arrays.asList(extraArgs));
+        return run(prefix, args);
+    }
+
+    public int run(String prefix, List<String> args) throws IOException, InterruptedException {
+        return execute(args, line -> {
+            synchronized (System.out) {
+                System.out.println(prefix + line);
+            }
+        });
+    }
+
+    // run pulumi with args in the work dir and hand every output line to output
+    protected int execute(List<String> args, Consumer<String> output) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add("pulumi");
+        command.addAll(args);
+
+        ProcessBuilder builder = new ProcessBuilder(command)
+                .directory(workDir.toFile())
+                .redirectErrorStream(true);
+        builder.environment().putAll(environment);
+        builder.environment().put("PULUMI_BACKEND_URL", backendUrl);
+        builder.environment().put("PULUMI_SKIP_UPDATE_CHECK", "true");
+
+        Process process = builder.start();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.accept(line);
+            }
+            return process.waitFor();
+        }
+    }
+}
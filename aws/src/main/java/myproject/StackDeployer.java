@@ -0,0 +1,283 @@
+package myproject;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/*
+previews or updates several stacks of this project at the same time against a local file backend
+
+the program is packaged once up front and every pulumi process runs the same prebuilt jar, the java
+runtime would otherwise start a maven compile per stack into the shared target/classes
+
+mvn compile exec:java -DmainClass=myproject.StackDeployer -DmainArgs="--stacks=dev,demo --operation=up"
+ */
+public class StackDeployer {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+
+        // get options
+        Optional<String> stacksOption = Optional.ofNullable(options.get("stacks"));
+        // check options
+        if (stacksOption.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "usage: --stacks=dev,demo [--operation=preview|up|destroy|refresh] [--parallelism=n] "
+                            + "[--fail-fast] [--skip-build] [--backend=file://...] [--work-dir=.] "
+                            + "[--env.<stack>.<NAME>=value] [--same-account]");
+        }
+        List<String> stacks = Arrays.stream(stacksOption.get().split(","))
+                .map(String::trim)
+                .filter(stack -> !stack.isEmpty())
+                .collect(Collectors.toList());
+        String operation = options.getOrDefault("operation", "preview");
+        if (!List.of("preview", "up", "destroy", "refresh").contains(operation)) {
+            throw new IllegalArgumentException("operation must be preview, up, destroy or refresh");
+        }
+        int parallelism = Integer.parseInt(options.getOrDefault("parallelism", String.valueOf(stacks.size())));
+        boolean failFast = options.containsKey("fail-fast");
+        boolean build = !options.containsKey("skip-build");
+        Path workDir = Paths.get(options.getOrDefault("work-dir", ".")).toAbsolutePath().normalize();
+        String backendUrl = options.getOrDefault("backend", PulumiCli.DEFAULT_BACKEND_URL);
+        Map<String, Map<String, String>> stackEnvironments = stackEnvironments(options, stacks);
+        // check stacks, every process inherits AWS_PROFILE, so stacks in different accounts need their own
+        // profile, either aws:profile in Pulumi.<stack>.yaml or --env.<stack>.AWS_PROFILE
+        if (stacks.size() > 1 && !options.containsKey("same-account")) {
+            for (String stack : stacks) {
+                if (!stackEnvironments.get(stack).containsKey("AWS_PROFILE")
+                        && !hasConfig(workDir.resolve("Pulumi." + stack + ".yaml"), "aws:profile")) {
+                    throw new IllegalArgumentException("stack " + stack + " sets no aws:profile, pass "
+                            + "--env." + stack + ".AWS_PROFILE=<profile> or --same-account if every stack "
+                            + "deploys to the current account");
+                }
+            }
+        }
+
+        if (backendUrl.startsWith("file://")) {
+            Files.createDirectories(Paths.get(backendUrl.substring("file://".length())));
+        }
+
+        long start = System.nanoTime();
+        Path projectDir = prebuiltProject(workDir, build);
+        List<StackRun> runs = new StackDeployer(
+                stack -> new PulumiCli(projectDir, backendUrl, stackEnvironments.get(stack)), workDir)
+                .deploy(stacks, operation, parallelism, failFast);
+        printSummary(runs, Duration.ofNanos(System.nanoTime() - start));
+        if (runs.stream().anyMatch(run -> !run.succeeded())) {
+            System.exit(1);
+        }
+    }
+
+    // package the program once and write a project under target/deploy that runs the jar, main and
+    // stackConfigDir point back at the work dir so relative asset paths and Pulumi.<stack>.yaml still resolve
+    static Path prebuiltProject(Path workDir, boolean build) throws IOException, InterruptedException {
+        if (build) {
+            Process maven = new ProcessBuilder("mvn", "-B", "-q", "package", "-DskipTests")
+                    .directory(workDir.toFile())
+                    .inheritIO()
+                    .start();
+            if (maven.waitFor() != 0) {
+                throw new IOException("mvn package failed in " + workDir);
+            }
+        }
+        Path jar;
+        try (var files = Files.list(workDir.resolve("target"))) {
+            jar = files.filter(file -> file.getFileName().toString().endsWith("-jar-with-dependencies.jar"))
+                    .findFirst()
+                    .orElseThrow(() -> new IOException("no jar-with-dependencies in " + workDir.resolve("target")));
+        }
+
+        String projectName = Files.readAllLines(workDir.resolve("Pulumi.yaml")).stream()
+                .filter(line -> line.startsWith("name:"))
+                .map(line -> line.substring("name:".length()).trim())
+                .findFirst()
+                .orElseThrow(() -> new IOException("Pulumi.yaml has no name"));
+        Path projectDir = Files.createDirectories(workDir.resolve("target").resolve("deploy"));
+        Files.writeString(projectDir.resolve("Pulumi.yaml"), String.join("\n",
+                "name: " + projectName,
+                "runtime:",
+                "  name: java",
+                "  options:",
+                "    binary: " + jar.toAbsolutePath(),
+                "main: ../..",
+                "stackConfigDir: ../..",
+                ""));
+        return projectDir;
+    }
+
+    // --env.<stack>.<NAME>=value options as environment variables per stack
+    static Map<String, Map<String, String>> stackEnvironments(Map<String, String> options, List<String> stacks) {
+        Map<String, Map<String, String>> environments = new HashMap<>();
+        stacks.forEach(stack -> environments.put(stack, new HashMap<>()));
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            if (!option.getKey().startsWith("env.")) {
+                continue;
+            }
+            String stackAndName = option.getKey().substring("env.".length());
+            String stack = stacks.stream()
+                    .filter(candidate -> stackAndName.startsWith(candidate + ".")
+                            && stackAndName.length() > candidate.length() + 1)
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException(
+                            "--" + option.getKey() + " does not name one of the stacks and a variable"));
+            environments.get(stack).put(stackAndName.substring(stack.length() + 1), option.getValue());
+        }
+        return environments;
+    }
+
+    // true if the stack config sets key, a missing file sets nothing
+    static boolean hasConfig(Path stackFile, String key) throws IOException {
+        if (!Files.exists(stackFile)) {
+            return false;
+        }
+        return Files.readAllLines(stackFile).stream()
+                .map(String::trim)
+                .anyMatch(line -> line.startsWith(key + ":"));
+    }
+
+    private final Function<String, PulumiCli> clis;
+    private final Path workDir;
+
+    public StackDeployer(PulumiCli cli, Path workDir) {
+        this(stack -> cli, workDir);
+    }
+
+    // clis gives the cli for each stack, e.g. with the environment of that stack's account
+    public StackDeployer(Function<String, PulumiCli> clis, Path workDir) {
+        this.clis = clis;
+        this.workDir = workDir;
+    }
+
+    // run the operation on every stack with at most parallelism stacks in flight, results keep the
+    // order of stacks
+    public List<StackRun> deploy(List<String> stacks, String operation, int parallelism, boolean failFast)
+            throws InterruptedException, IOException {
+        Path eventDir = Files.createDirectories(workDir.resolve("target").resolve("pulumi-events"));
+        Map<String, StackRun> results = new HashMap<>();
+
+        // create missing stacks one after the other before anything runs concurrently
+        List<String> ready = new ArrayList<>();
+        for (String stack : stacks) {
+            int exitCode = clis.apply(stack).initStack(stack, "[" + stack + "] ");
+            if (exitCode == 0) {
+                ready.add(stack);
+            } else {
+                results.put(stack, new StackRun(stack, exitCode, Duration.ZERO, Map.of(), null));
+            }
+        }
+
+        // with fail fast a failure only stops stacks that have not started yet, running updates finish
+        // so that no stack is left with pending operations
+        AtomicBoolean stopping = new AtomicBoolean(failFast && !results.isEmpty());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, ready.size())));
+        Map<String, Future<StackRun>> futures = new LinkedHashMap<>();
+        for (String stack : ready) {
+            futures.put(stack, executor.submit(() -> {
+                if (stopping.get()) {
+                    return StackRun.cancelled(stack);
+                }
+                StackRun run;
+                try {
+                    run = runStack(stack, operation, eventDir);
+                } catch (IOException e) {
+                    run = StackRun.failed(stack, e);
+                }
+                if (failFast && !run.succeeded() && stopping.compareAndSet(false, true)) {
+                    System.out.println("[" + stack + "] failed, not starting the remaining stacks");
+                }
+                return run;
+            }));
+        }
+        executor.shutdown();
+
+        for (Map.Entry<String, Future<StackRun>> entry : futures.entrySet()) {
+            try {
+                results.put(entry.getKey(), entry.getValue().get());
+            } catch (ExecutionException e) {
+                results.put(entry.getKey(), StackRun.failed(entry.getKey(), e.getCause()));
+            }
+        }
+
+        return stacks.stream()
+                .map(results::get)
+                .collect(Collectors.toList());
+    }
+
+    private StackRun runStack(String stack, String operation, Path eventDir) throws Exception {
+        String prefix = "[" + stack + "] ";
+        Path eventLog = eventDir.resolve(stack + "-" + operation + ".jsonl");
+        Files.deleteIfExists(eventLog);
+
+        long start = System.nanoTime();
+        int exitCode = clis.apply(stack).operation(operation, stack, prefix, eventLog);
+        Duration duration = Duration.ofNanos(System.nanoTime() - start);
+
+        return new StackRun(stack, exitCode, duration, EngineEvents.read(eventLog).operationCounts(), null);
+    }
+
+    private static void printSummary(List<StackRun> runs, Duration wallTime) {
+        System.out.println();
+        System.out.printf("%-12s %-10s %10s  %s%n", "STACK", "STATUS", "SECONDS", "RESOURCES");
+        for (StackRun run : runs) {
+            System.out.printf("%-12s %-10s %10.1f  %s%n",
+                    run.stack, run.status(), run.duration.toMillis() / 1000.0, run.operationCounts);
+        }
+        System.out.printf("wall time %.1fs, sum of stack times %.1fs%n",
+                wallTime.toMillis() / 1000.0, runs.stream().mapToLong(run -> run.duration.toMillis()).sum() / 1000.0);
+    }
+
+    // --key=value and bare --flag options
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("unexpected argument " + arg);
+            }
+            String[] keyValue = arg.substring(2).split("=", 2);
+            options.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "true");
+        }
+        return options;
+    }
+
+    public static class StackRun {
+        public final String stack;
+        public final int exitCode;
+        public final Duration duration;
+        public final Map<String, Integer> operationCounts;
+        public final Throwable error;
+
+        StackRun(String stack, int exitCode, Duration duration, Map<String, Integer> operationCounts, Throwable error) {
+            this.stack = stack;
+            this.exitCode = exitCode;
+            this.duration = duration;
+            this.operationCounts = operationCounts;
+            this.error = error;
+        }
+
+        static StackRun failed(String stack, Throwable error) {
+            return new StackRun(stack, -1, Duration.ZERO, Map.of(), error);
+        }
+
+        static StackRun cancelled(String stack) {
+            return new StackRun(stack, -1, Duration.ZERO, Map.of(), new CancellationException());
+        }
+
+        public boolean succeeded() {
+            return exitCode == 0;
+        }
+
+        public String status() {
+            if (error instanceof CancellationException) {
+                return "cancelled";
+            }
+            return succeeded() ? "ok" : "failed";
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package myproject;
+
+import com.pulumi.test.Mocks;
+import com.pulumi.test.PulumiTest;
+import com.pulumi.test.TestOptions;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+offline mocks for App.stack, resources echo their inputs back plus the outputs the stack reads,
+and every registered resource is recorded
+ */
+public class StackMocks implements Mocks {
+    private static final String ACCOUNT_ID = "123456789012";
+
+    private final String region;
+    private final Queue<RegisteredResource> resources = new ConcurrentLinkedQueue<>();
+
+    public StackMocks(String region) {
+        this.region = region;
+    }
+
+    @Override
+    public CompletableFuture<ResourceResult> newResourceAsync(ResourceArgs args) {
+        resources.add(new RegisteredResource(args.type, args.name, args.inputs));
+
+        Map<String, Object> state = new HashMap<>(args.inputs);
+        state.putIfAbsent("name", args.name);
+        state.putIfAbsent("arn", "arn:aws:" + args.type.split(":")[1].split("/")[0] + ":" + region + ":"
+                + ACCOUNT_ID + ":" + args.name);
+        switch (args.type) {
+            case "aws:rds/instance:Instance":
+                state.put("address", args.name + ".rds.amazonaws.com");
+                break;
+            case "aws:rds/cluster:Cluster":
+                state.put("endpoint", args.name + ".cluster.rds.amazonaws.com");
+                state.putIfAbsent("engine", "aurora-mysql");
+                state.putIfAbsent("engineVersion", "8.0.mysql_aurora.3.04.0");
+                break;
+            case "aws:dax/cluster:Cluster":
+                state.put("configurationEndpoint", "dax://" + args.name + ".dax-clusters.amazonaws.com");
+                break;
+            case "aws:alb/loadBalancer:LoadBalancer":
+                state.put("dnsName", args.name + ".elb.amazonaws.com");
+                state.put("zoneId", "Z1H1FL5HABSF5");
+                break;
+            case "aws:ec2/launchTemplate:LaunchTemplate":
+                state.put("latestVersion", 1);
+                break;
+            case "gcp:serviceaccount/account:Account":
+                state.put("email", args.name + "@mock.iam.gserviceaccount.com");
+                break;
+            case "gcp:serviceaccount/key:Key":
+                state.put("privateKey", "bW9jaw==");
+                break;
+            default:
+                break;
+        }
+        return CompletableFuture.completedFuture(ResourceResult.of(Optional.of(args.name + "_id"), state));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> callAsync(CallArgs args) {
+        switch (args.token) {
+            case "aws:index/getAvailabilityZones:getAvailabilityZones":
+                return CompletableFuture.completedFuture(Map.of(
+                        "id", region,
+                        "groupNames", List.of(region),
+                        "names", List.of(region + "a", region + "b", region + "c"),
+                        "zoneIds", List.of("usw2-az1", "usw2-az2", "usw2-az3")));
+            case "aws:index/getCallerIdentity:getCallerIdentity":
+                return CompletableFuture.completedFuture(Map.of(
+                        "id", ACCOUNT_ID,
+                        "accountId", ACCOUNT_ID,
+                        "arn", "arn:aws:iam::" + ACCOUNT_ID + ":user/mock",
+                        "userId", "mock"));
+            case "aws:index/getRegion:getRegion":
+                return CompletableFuture.completedFuture(Map.of(
+                        "id", region,
+                        "name", region,
+                        "description", region,
+                        "endpoint", "ec2." + region + ".amazonaws.com"));
+            default:
+                return CompletableFuture.completedFuture(Map.of());
+        }
+    }
+
+    // build App.stack against these mocks and return what it threw, the stack config comes from
+    // PULUMI_CONFIG, see scripts/stack-config.sh
+    public List<Throwable> runStack(String stackName) {
+        // check config
+        if (Optional.ofNullable(System.getenv("PULUMI_CONFIG")).isEmpty()) {
+            throw new RuntimeException("PULUMI_CONFIG must be set, e.g. PULUMI_CONFIG=\"$(scripts/stack-config.sh dev)\"");
+        }
+
+        var result = PulumiTest.withMocks(this)
+                .withOptions(TestOptions.builder()
+                        .projectName("aws-pulumi-setup")
+                        .stackName(stackName)
+                        .preview(false)
+                        .build())
+                .runTest(App::stack);
+        PulumiTest.cleanup();
+        return result.exceptions();
+    }
+
+    public List<RegisteredResource> resources() {
+        return new ArrayList<>(resources);
+    }
+
+    public static class RegisteredResource {
+        public final String type;
+        public final String name;
+        public final Map<String, Object> inputs;
+
+        RegisteredResource(String type, String name, Map<String, Object> inputs) {
+            this.type = type;
+            this.name = name;
+            this.inputs = inputs;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package myproject;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/*
+builds App.stack once under mocks without any engine or provider, used as the AppCDS training run
+and to time jvm startup plus resource graph construction
+
+the stack config comes from PULUMI_CONFIG, see scripts/stack-config.sh
+ */
+public class StackTrainer {
+
+    public static void main(String[] args) {
+        var mocks = new StackMocks(System.getProperty("region", "us-west-2"));
+        List<Throwable> exceptions = mocks.runStack(System.getProperty("stack", "dev"));
+
+        if (!exceptions.isEmpty()) {
+            exceptions.forEach(Throwable::printStackTrace);
+            System.exit(1);
+        }
+
+        long startupMillis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        System.out.println("resources: " + mocks.resources().size());
+        System.out.println("startup ms: " + startupMillis);
+    }
+}
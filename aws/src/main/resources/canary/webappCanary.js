@@ -0,0 +1,39 @@
+// synthetics canary for one webapp endpoint, the stack packs it as nodejs/node_modules/webappCanary.js
+// and passes the url in CANARY_URL, duration and success land in the CloudWatchSynthetics namespace
+const synthetics = require('Synthetics');
+const log = require('SyntheticsLogger');
+
+const checkEndpoint = async function () {
+    const url = new URL(process.env.CANARY_URL);
+    const requestOptions = {
+        hostname: url.hostname,
+        method: 'GET',
+        path: url.pathname + url.search,
+        port: 443,
+        protocol: 'https:',
+        headers: {'User-Agent': synthetics.getCanaryUserAgentString()}
+    };
+
+    // any status outside 2xx fails the run
+    const validate = async function (res) {
+        return new Promise((resolve, reject) => {
+            if (res.statusCode < 200 || res.statusCode > 299) {
+                reject(new Error(url.pathname + ' returned ' + res.statusCode));
+            }
+            res.on('data', () => {});
+            res.on('end', () => resolve());
+        });
+    };
+
+    log.info('GET ' + url.href);
+    await synthetics.executeHttpStep('GET ' + url.pathname, requestOptions, validate, {
+        includeRequestHeaders: false,
+        includeResponseHeaders: false,
+        includeRequestBody: false,
+        includeResponseBody: false
+    });
+};
+
+exports.handler = async () => {
+    return await checkEndpoint();
+};
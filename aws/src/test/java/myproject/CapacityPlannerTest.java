@@ -0,0 +1,73 @@
+package myproject;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+plans a few load profiles and checks that every plan passes the same rules App.stack enforces on the
+config
+ */
+class CapacityPlannerTest {
+
+    @Test
+    void plansTypicalProfile() {
+        Map<String, String> plan = CapacityPlanner.plan(profile(200, 250, 20, 3, 4)).values();
+
+        assertEquals("c6i.large", plan.get("instanceType"));
+        int min = Integer.parseInt(plan.get("asgMinSize"));
+        int max = Integer.parseInt(plan.get("asgMaxSize"));
+        assertEquals(0, min % 3);
+        assertEquals(0, max % 3);
+        assertTrue(min <= Integer.parseInt(plan.get("asgDesiredCapacity")));
+        assertTrue(max <= 12);
+        assertThresholdsOrdered(plan);
+        assertTrue(max * Integer.parseInt(plan.get("dbPoolSize")) <= Integer.parseInt(plan.get("dbMaxConnections")));
+    }
+
+    @Test
+    void keepsThresholdsApartAtLowUtilization() {
+        // t3.small at about 8% utilization of a 20% baseline, whole percents made both thresholds 1
+        Map<String, String> plan = CapacityPlanner.plan(profile(1, 100, 20, 0, 0)).values();
+
+        assertEquals("t3.small", plan.get("instanceType"));
+        assertEquals("1.5", plan.get("scaleUpCpuThreshold"));
+        assertEquals("0.7", plan.get("scaleDownCpuThreshold"));
+        assertThresholdsOrdered(plan);
+    }
+
+    @Test
+    void rejectsUtilizationTooLowToScaleOn() {
+        // the slo leaves just enough room for the p99 of the cpu time
+        var exception = assertThrows(IllegalArgumentException.class,
+                () -> CapacityPlanner.plan(profile(1, 93, 20, 0, 0)));
+        assertTrue(exception.getMessage().contains("too low to scale on"), exception.getMessage());
+    }
+
+    @Test
+    void rejectsUnreachableSlo() {
+        var exception = assertThrows(IllegalArgumentException.class,
+                () -> CapacityPlanner.plan(profile(200, 50, 20, 0, 0)));
+        assertTrue(exception.getMessage().contains("not reachable"), exception.getMessage());
+    }
+
+    @Test
+    void rejectsInvalidProfile() {
+        assertThrows(IllegalArgumentException.class, () -> CapacityPlanner.plan(profile(0, 250, 20, 0, 0)));
+        assertThrows(IllegalArgumentException.class, () -> CapacityPlanner.plan(profile(200, 250, 20, -1, 4)));
+    }
+
+    private static void assertThresholdsOrdered(Map<String, String> plan) {
+        double up = Double.parseDouble(plan.get("scaleUpCpuThreshold"));
+        double down = Double.parseDouble(plan.get("scaleDownCpuThreshold"));
+        assertTrue(down >= 0 && down < up, "scale down " + down + " is not below scale up " + up);
+    }
+
+    private static CapacityPlanner.LoadProfile profile(double rps, double latencySloMillis, double cpuMillis,
+                                                       double dbQueries, double dbQueryMillis) {
+        return new CapacityPlanner.LoadProfile(rps, latencySloMillis, cpuMillis, dbQueries, dbQueryMillis,
+                2, 3, 12, 300);
+    }
+}
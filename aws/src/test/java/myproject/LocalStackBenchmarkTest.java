@@ -0,0 +1,52 @@
+package myproject;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+checks how the benchmark reads stack files before it touches them, run from aws/ like mvn test
+ */
+class LocalStackBenchmarkTest {
+    @TempDir
+    Path workDir;
+
+    @Test
+    void acceptsOnlyLocalStackStacks() throws Exception {
+        assertTrue(LocalStackBenchmark.isLocalStackConfigured(Paths.get("Pulumi.localstack.yaml")));
+        assertFalse(LocalStackBenchmark.isLocalStackConfigured(Paths.get("Pulumi.dev.yaml")));
+        assertFalse(LocalStackBenchmark.isLocalStackConfigured(Paths.get("Pulumi.demo.yaml")));
+        assertFalse(LocalStackBenchmark.isLocalStackConfigured(workDir.resolve("Pulumi.missing.yaml")));
+    }
+
+    @Test
+    void committedStackNeedsNoRewriteForDefaultEndpoint() throws Exception {
+        Map<String, String> endpoints = LocalStackBenchmark.configuredEndpoints(Paths.get("Pulumi.localstack.yaml"));
+
+        for (String service : LocalStackBenchmark.SERVICES) {
+            assertEquals("http://localhost:4566", endpoints.get(service), service);
+        }
+    }
+
+    @Test
+    void readsOnlyTheFirstEndpointsEntry() throws Exception {
+        Path stackFile = workDir.resolve("Pulumi.local.yaml");
+        Files.write(stackFile, List.of(
+                "config:",
+                "  aws:endpoints:",
+                "  - s3: \"http://127.0.0.1:4566\"",
+                "    sns: http://127.0.0.1:4566",
+                "  - s3: http://other:4566",
+                "  aws:region: us-west-2"));
+
+        assertEquals(Map.of("s3", "http://127.0.0.1:4566", "sns", "http://127.0.0.1:4566"),
+                LocalStackBenchmark.configuredEndpoints(stackFile));
+    }
+}
@@ -0,0 +1,96 @@
+package myproject;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.pulumi.Pulumi;
+import com.pulumi.core.Output;
+import com.pulumi.resources.ComponentResource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/*
+runs StackDeployer with the real pulumi cli against a temporary file backend, the program is a trivial
+one that registers a single component resource, so no provider plugin is needed. Skipped when pulumi
+is not on the PATH
+ */
+class StackDeployerCliTest {
+    @TempDir
+    Path workDir;
+
+    @TempDir
+    Path backendDir;
+
+    @Test
+    void deploysPrebuiltProgramFromGeneratedProject() throws Exception {
+        assumeTrue(onPath("pulumi"), "pulumi is not on the PATH");
+
+        // a project like aws/, the stack config and a relative asset live next to Pulumi.yaml
+        Files.write(workDir.resolve("Pulumi.yaml"), List.of("name: deployer-test", "runtime: java"));
+        Files.write(workDir.resolve("Pulumi.test.yaml"), List.of("config:", "  deployer-test:greeting: hello"));
+        Files.write(workDir.resolve("asset.txt"), List.of("asset"));
+        writeProgramJar(Files.createDirectories(workDir.resolve("target"))
+                .resolve("deployer-test-1.0-jar-with-dependencies.jar"));
+
+        Path projectDir = StackDeployer.prebuiltProject(workDir, false);
+        var cli = new PulumiCli(projectDir, "file://" + backendDir, Map.of("PULUMI_CONFIG_PASSPHRASE", ""));
+        List<StackDeployer.StackRun> runs = new StackDeployer(cli, workDir)
+                .deploy(List.of("test"), "up", 1, false);
+
+        assertEquals("ok", runs.get(0).status());
+        // the component is counted from the real --event-log, the stack resource is not
+        assertEquals(Map.of("create", 1), runs.get(0).operationCounts);
+
+        StringBuilder json = new StringBuilder();
+        assertEquals(0, cli.execute(List.of("stack", "output", "--json", "--stack", "test"), json::append));
+        JsonObject outputs = JsonParser.parseString(json.substring(json.indexOf("{"))).getAsJsonObject();
+        // stackConfigDir: ../.. found Pulumi.test.yaml and main: ../.. runs the program in the work dir
+        assertEquals("hello", outputs.get("greeting").getAsString());
+        assertTrue(outputs.get("assetFound").getAsBoolean());
+    }
+
+    // an executable jar that only carries a manifest, its class path is the test class path
+    private static void writeProgramJar(Path jar) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, TrivialProgram.class.getName());
+        manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH,
+                Arrays.stream(System.getProperty("java.class.path").split(File.pathSeparator))
+                        .map(entry -> Paths.get(entry).toAbsolutePath().toUri().toString())
+                        .collect(Collectors.joining(" ")));
+        try (OutputStream out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+            out.flush();
+        }
+    }
+
+    private static boolean onPath(String command) {
+        return Arrays.stream(System.getenv().getOrDefault("PATH", "").split(File.pathSeparator))
+                .anyMatch(dir -> Files.isExecutable(Paths.get(dir, command)));
+    }
+
+    public static class TrivialProgram {
+        public static void main(String[] args) {
+            Pulumi.run(ctx -> {
+                new ComponentResource("deployer:test:Marker", "marker");
+                ctx.export("greeting", Output.of(ctx.config().require("greeting")));
+                ctx.export("assetFound", Output.of(Files.exists(Paths.get("asset.txt"))));
+            });
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package myproject;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+runs StackDeployer against a temporary file backend, the pulumi cli is replaced by a stub that keeps
+stacks as files in the backend and writes a small engine event log for every operation
+ */
+class StackDeployerTest {
+    @TempDir
+    Path workDir;
+
+    @TempDir
+    Path backendDir;
+
+    @Test
+    void runsEveryStackAndCountsResourceOperations() throws Exception {
+        var cli = new StubCli(workDir, backendDir);
+
+        List<StackDeployer.StackRun> runs = new StackDeployer(cli, workDir)
+                .deploy(List.of("dev", "demo"), "up", 2, false);
+
+        assertEquals(List.of("dev", "demo"), runs.stream().map(run -> run.stack).collect(Collectors.toList()));
+        for (StackDeployer.StackRun run : runs) {
+            assertEquals("ok", run.status());
+            assertEquals(Map.of("create", 2), run.operationCounts);
+        }
+        assertEquals(Set.of("dev", "demo"), cli.stacks());
+    }
+
+    @Test
+    void createsMissingStacksOnceWithoutSelecting() throws Exception {
+        var cli = new StubCli(workDir, backendDir);
+        var deployer = new StackDeployer(cli, workDir);
+
+        deployer.deploy(List.of("dev", "demo"), "preview", 2, false);
+        deployer.deploy(List.of("dev", "demo"), "preview", 2, false);
+
+        List<List<String>> inits = cli.commands.stream()
+                .filter(args -> args.subList(0, 2).equals(List.of("stack", "init")))
+                .collect(Collectors.toList());
+        assertEquals(2, inits.size());
+        assertTrue(inits.stream().allMatch(args -> args.contains("--no-select")));
+        assertTrue(cli.commands.stream().noneMatch(args -> args.contains("select")));
+        assertTrue(cli.commands.stream()
+                .filter(args -> args.get(0).equals("preview"))
+                .allMatch(args -> args.contains("--stack")));
+    }
+
+    @Test
+    void failFastDoesNotStartRemainingStacks() throws Exception {
+        var cli = new StubCli(workDir, backendDir);
+        cli.failing.add("dev");
+
+        List<StackDeployer.StackRun> runs = new StackDeployer(cli, workDir)
+                .deploy(List.of("dev", "demo", "prod"), "up", 1, true);
+
+        assertEquals(List.of("failed", "cancelled", "cancelled"),
+                runs.stream().map(StackDeployer.StackRun::status).collect(Collectors.toList()));
+        assertEquals(List.of("dev"), cli.updated);
+    }
+
+    @Test
+    void failFastLetsRunningStacksFinish() throws Exception {
+        var cli = new StubCli(workDir, backendDir);
+        cli.failing.add("dev");
+        // dev fails only once demo is running, demo finishes only after dev has failed
+        var demoStarted = new CountDownLatch(1);
+        var devFailed = new CountDownLatch(1);
+        cli.beforeUpdate.put("dev", () -> await(demoStarted));
+        cli.afterUpdate.put("dev", devFailed::countDown);
+        cli.beforeUpdate.put("demo", () -> {
+            demoStarted.countDown();
+            await(devFailed);
+        });
+
+        List<StackDeployer.StackRun> runs = new StackDeployer(cli, workDir)
+                .deploy(List.of("dev", "demo"), "up", 2, true);
+
+        assertEquals(List.of("failed", "ok"),
+                runs.stream().map(StackDeployer.StackRun::status).collect(Collectors.toList()));
+    }
+
+    @Test
+    void runsEveryStackWithItsOwnCli() throws Exception {
+        var devCli = new StubCli(workDir, backendDir);
+        var demoCli = new StubCli(workDir, backendDir);
+        Map<String, PulumiCli> clis = Map.of("dev", devCli, "demo", demoCli);
+
+        new StackDeployer(clis::get, workDir).deploy(List.of("dev", "demo"), "up", 2, false);
+
+        assertEquals(List.of("dev"), devCli.updated);
+        assertEquals(List.of("demo"), demoCli.updated);
+    }
+
+    @Test
+    void splitsEnvironmentOptionsByStack() {
+        Map<String, String> options = StackDeployer.parseOptions(new String[]{
+                "--stacks=dev,demo", "--env.dev.AWS_PROFILE=dev-admin", "--env.demo.AWS_PROFILE=demo-admin",
+                "--env.demo.AWS_REGION=us-east-1"});
+
+        Map<String, Map<String, String>> environments = StackDeployer.stackEnvironments(options, List.of("dev", "demo"));
+
+        assertEquals(Map.of("AWS_PROFILE", "dev-admin"), environments.get("dev"));
+        assertEquals(Map.of("AWS_PROFILE", "demo-admin", "AWS_REGION", "us-east-1"), environments.get("demo"));
+        assertThrows(IllegalArgumentException.class, () -> StackDeployer.stackEnvironments(
+                Map.of("env.prod.AWS_PROFILE", "prod"), List.of("dev", "demo")));
+    }
+
+    @Test
+    void readsProfileFromStackConfig() throws Exception {
+        Files.write(workDir.resolve("Pulumi.dev.yaml"), List.of("config:", "  aws:profile: dev-admin"));
+        Files.write(workDir.resolve("Pulumi.demo.yaml"), List.of("config:", "  aws:region: us-west-2"));
+
+        assertTrue(StackDeployer.hasConfig(workDir.resolve("Pulumi.dev.yaml"), "aws:profile"));
+        assertFalse(StackDeployer.hasConfig(workDir.resolve("Pulumi.demo.yaml"), "aws:profile"));
+        assertFalse(StackDeployer.hasConfig(workDir.resolve("Pulumi.prod.yaml"), "aws:profile"));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new AssertionError("interrupted while the stack was running", e);
+        }
+    }
+
+    // answers the commands StackDeployer sends, stacks are files under the backend dir like in a
+    // real file backend
+    static class StubCli extends PulumiCli {
+        final List<List<String>> commands = new CopyOnWriteArrayList<>();
+        final List<String> updated = new CopyOnWriteArrayList<>();
+        final Set<String> failing = ConcurrentHashMap.newKeySet();
+        final Map<String, Runnable> beforeUpdate = new ConcurrentHashMap<>();
+        final Map<String, Runnable> afterUpdate = new ConcurrentHashMap<>();
+        private final Path stackDir;
+
+        StubCli(Path workDir, Path backendDir) {
+            super(workDir, "file://" + backendDir);
+            this.stackDir = backendDir.resolve(".pulumi").resolve("stacks").resolve("aws-pulumi-setup");
+        }
+
+        @Override
+        protected int execute(List<String> args, Consumer<String> output) throws IOException {
+            commands.add(args);
+            if (args.subList(0, 2).equals(List.of("stack", "ls"))) {
+                Files.createDirectories(stackDir);
+                try (var files = Files.list(stackDir)) {
+                    output.accept(files
+                            .map(file -> file.getFileName().toString().replace(".json", ""))
+                            .map(stack -> "{\"name\": \"organization/aws-pulumi-setup/" + stack + "\"}")
+                            .collect(Collectors.joining(",", "[", "]")));
+                }
+                return 0;
+            }
+            if (args.subList(0, 2).equals(List.of("stack", "init"))) {
+                String stack = args.get(args.size() - 1);
+                Files.createDirectories(stackDir);
+                Files.createFile(stackDir.resolve(stack + ".json"));
+                return 0;
+            }
+
+            String stack = args.get(args.indexOf("--stack") + 1);
+            assertTrue(Files.exists(stackDir.resolve(stack + ".json")), "stack " + stack + " was never created");
+            beforeUpdate.getOrDefault(stack, () -> { }).run();
+            updated.add(stack);
+            Path eventLog = Path.of(args.get(args.indexOf("--event-log") + 1));
+            Files.write(eventLog, List.of(
+                    step(stack, "aws:ec2/vpc:Vpc", "vpc", 100, 101),
+                    step(stack, "aws:ec2/subnet:Subnet", "subnet", 101, 103),
+                    step(stack, "pulumi:pulumi:Stack", "aws-pulumi-setup-" + stack, 100, 103)), StandardCharsets.UTF_8);
+            afterUpdate.getOrDefault(stack, () -> { }).run();
+            return failing.contains(stack) ? 1 : 0;
+        }
+
+        private static String step(String stack, String type, String name, long start, long end) {
+            String urn = "urn:pulumi:" + stack + "::aws-pulumi-setup::" + type + "::" + name;
+            return "{\"timestamp\": " + start + ", \"resourcePreEvent\": {\"metadata\": {\"urn\": \"" + urn + "\"}}}\n"
+                    + "{\"timestamp\": " + end + ", \"resOutputsEvent\": {\"metadata\": {\"urn\": \"" + urn
+                    + "\", \"type\": \"" + type + "\", \"op\": \"create\"}}}";
+        }
+    }
+}
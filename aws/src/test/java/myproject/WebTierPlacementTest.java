@@ -0,0 +1,65 @@
+package myproject;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+builds the "test" stack under mocks and checks that the web tier can place instances in every
+public subnet, the stack config comes from the surefire PULUMI_CONFIG in pom.xml
+ */
+class WebTierPlacementTest {
+    private static List<StackMocks.RegisteredResource> resources;
+
+    @BeforeAll
+    static void runStack() {
+        var mocks = new StackMocks("us-west-2");
+        List<Throwable> exceptions = mocks.runStack("test");
+        assertEquals(List.of(), exceptions);
+        resources = mocks.resources();
+    }
+
+    @Test
+    void launchTemplateLeavesSubnetToTheGroup() {
+        List<StackMocks.RegisteredResource> launchTemplates = ofType("aws:ec2/launchTemplate:LaunchTemplate");
+        assertFalse(launchTemplates.isEmpty());
+        for (StackMocks.RegisteredResource launchTemplate : launchTemplates) {
+            for (Object networkInterface : (List<?>) launchTemplate.inputs.get("networkInterfaces")) {
+                assertFalse(((Map<?, ?>) networkInterface).containsKey("subnetId"),
+                        launchTemplate.name + " pins its network interface to a subnet");
+            }
+        }
+    }
+
+    @Test
+    void groupSpansEveryPublicSubnet() {
+        List<StackMocks.RegisteredResource> publicSubnets = ofType("aws:ec2/subnet:Subnet").stream()
+                .filter(subnet -> subnet.name.startsWith("test-public-subnet"))
+                .collect(Collectors.toList());
+        // the mocks report three zones and every zone gets one public subnet
+        assertEquals(3, publicSubnets.size());
+        assertEquals(3, publicSubnets.stream().map(subnet -> subnet.inputs.get("availabilityZone")).distinct().count());
+        Set<String> publicSubnetIds = publicSubnets.stream()
+                .map(subnet -> subnet.name + "_id")
+                .collect(Collectors.toSet());
+
+        List<StackMocks.RegisteredResource> groups = ofType("aws:autoscaling/group:Group");
+        assertFalse(groups.isEmpty());
+        for (StackMocks.RegisteredResource group : groups) {
+            assertEquals(publicSubnetIds, new HashSet<>((List<?>) group.inputs.get("vpcZoneIdentifiers")),
+                    group.name + " does not cover every public subnet");
+            assertEquals(true, group.inputs.get("capacityRebalance"));
+            assertEquals("ELB", group.inputs.get("healthCheckType"));
+        }
+    }
+
+    private static List<StackMocks.RegisteredResource> ofType(String type) {
+        return resources.stream()
+                .filter(resource -> resource.type.equals(type))
+                .collect(Collectors.toList());
+    }
+}